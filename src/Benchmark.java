@@ -0,0 +1,705 @@
+import crypto.ChaCha20;
+import crypto.DHParameterPool;
+import crypto.DiffieHellman;
+import crypto.HMAC;
+import crypto.RSA;
+import crypto.RSAKeyStore;
+import protocol.BlockingTLSServer;
+import protocol.CertificateView;
+import protocol.MessageCodec;
+import protocol.NioTLSServer;
+import protocol.RecordLayer;
+import protocol.ServerContext;
+import protocol.SharedMemoryTransport;
+import protocol.SocketChannelTransport;
+import protocol.TLSClient;
+import protocol.TLSMessage;
+import protocol.TLSServer;
+import protocol.Transport;
+import utils.BailliePSW;
+import utils.ByteUtils;
+import utils.Colors;
+import utils.Entropy;
+import utils.Log;
+import utils.MathUtils;
+import utils.PrimeSieve;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// Micro-benchmarks for the hot paths of the handshake
+// Usage: java Benchmark [selftest|primes|modinverse|rsa|keystore|cipher|mac|codec|handshakes|threads|ipc]
+// selftest checks ChaCha20 and Baillie-PSW against known answers, checks that bad DH public
+// values fail the handshake, and exits 1 on a mismatch
+public class Benchmark {
+
+    private static volatile Object sink;  // Keeps the JIT from discarding benchmarked results
+    private static int failures;          // Failed known-answer checks
+
+    public static void main(String[] args) {
+        String section = args.length > 0 ? args[0].toLowerCase() : "all";
+
+        // Timing a wrong implementation is pointless, so the checks run first
+        if (section.equals("all") || section.equals("selftest")) {
+            runSelfTest();
+            if (failures > 0) {
+                System.exit(1);
+            }
+        }
+        if (section.equals("all") || section.equals("primes")) {
+            benchPrimes();
+        }
+        if (section.equals("all") || section.equals("modinverse")) {
+            benchModInverse();
+        }
+        if (section.equals("all") || section.equals("rsa")) {
+            benchRsaPrivate();
+        }
+        if (section.equals("all") || section.equals("keystore")) {
+            benchKeyStore();
+        }
+        if (section.equals("all") || section.equals("cipher")) {
+            benchCipher();
+        }
+        if (section.equals("all") || section.equals("mac")) {
+            benchMac();
+        }
+        if (section.equals("all") || section.equals("codec")) {
+            benchCodec();
+        }
+        if (section.equals("all") || section.equals("handshakes")) {
+            benchHandshakes();
+        }
+        if (section.equals("all") || section.equals("threads")) {
+            benchThreads();
+        }
+        if (section.equals("all") || section.equals("ipc")) {
+            benchIpc();
+        }
+    }
+
+    // --------- KNOWN-ANSWER CHECKS -------------
+    private static void runSelfTest() {
+        printHeader("Known-answer checks");
+
+        // RFC 8439 2.3.2: one keystream block for key 00..1f, counter 1
+        check("ChaCha20 block (RFC 8439 2.3.2)",
+                chacha(sequence(32), fromHex("000000090000004a00000000"), 1, new byte[64], false),
+                "10f1e7e4d13b5915500fdd1fa32071c4c7d1f4c733c068030422aa9ac3d46c4e"
+                        + "d2826446079faa0914c2d705d98b02a2b5129cd1de164eb9cbd083e8a2503c4e");
+
+        // RFC 8439 2.4.2: 114 bytes over two blocks, through both the array and direct buffer paths
+        byte[] sunscreen = ("Ladies and Gentlemen of the class of '99: If I could offer you only one tip "
+                + "for the future, sunscreen would be it.").getBytes(StandardCharsets.US_ASCII);
+        String sunscreenCiphertext = "6e2e359a2568f98041ba0728dd0d6981e97e7aec1d4360c20a27afccfd9fae0b"
+                + "f91b65c5524733ab8f593dabcd62b3571639d624e65152ab8f530c359f0861d8"
+                + "07ca0dbf500d6a6156a38e088a22b65e52bc514d16ccf806818ce91ab7793736"
+                + "5af90bbf74a35be6b40b8eedf2785e42874d";
+        byte[] nonce = fromHex("000000000000004a00000000");
+        check("ChaCha20 encrypt (RFC 8439 2.4.2)",
+                chacha(sequence(32), nonce, 1, sunscreen, false), sunscreenCiphertext);
+        check("ChaCha20 encrypt, direct buffers",
+                chacha(sequence(32), nonce, 1, sunscreen, true), sunscreenCiphertext);
+
+        // 16-byte key ("expand 16-byte k"): all-zero key, nonce and counter, which is
+        // TC1 of draft-strombergson-chacha-test-vectors for 20 rounds
+        check("ChaCha20 16-byte key",
+                chacha(new byte[16], new byte[ChaCha20.NONCE_LENGTH], 0, new byte[64], false),
+                "89670952608364fd00b2f90936f031c8e756e15dba04b8493d00429259b20f46"
+                        + "cc04f111246b6c2ce066be3bfb32d9aa0fddfbc12123d4b9e44f34dca05a103f");
+
+        // Baillie-PSW. Each list targets one stage of the test; all of them must be rejected
+        checkComposites("BPSW strong base-2 pseudoprimes", new long[] {
+                2047, 3277, 4033, 4681, 8321, 15841, 29341, 42799, 49141, 52633, 65281, 74665, 80581,
+                85489, 88357, 90751 });
+        checkComposites("BPSW strong Lucas pseudoprimes", new long[] {
+                5459, 5777, 10877, 16109, 18971, 22499, 24569, 25199, 40309, 58519, 75077, 97439 });
+        checkComposites("BPSW Carmichael numbers", new long[] {
+                561, 1105, 1729, 2465, 2821, 6601, 8911, 10585, 15841, 29341, 41041, 46657, 52633,
+                62745, 63973, 75361, 101101, 115921, 126217, 162401, 172081, 188461, 252601, 278545,
+                294409, 314821, 334153, 340561, 399001, 410041, 449065, 488881, 512461,
+                3215031751L });  // The last is a strong pseudoprime to bases 2, 3, 5 and 7
+        // 1093^2 and 3511^2 (Wieferich primes squared) pass base 2, so the square check must catch them
+        checkComposites("BPSW perfect squares", new long[] {
+                1093L * 1093, 3511L * 3511, 9409, 65537L * 65537, 2147483647L * 2147483647L });
+
+        // Every n below 100,000, then random odd numbers, primes and semiprimes up to 1024 bits
+        boolean agrees = true;
+        for (int n = 0; n < 100_000 && agrees; n++) {
+            BigInteger value = BigInteger.valueOf(n);
+            agrees = BailliePSW.isProbablePrime(value) == value.isProbablePrime(100);
+        }
+        check("BPSW matches BigInteger, n < 100000", agrees);
+
+        Random random = Entropy.current();
+        agrees = true;
+        for (int i = 0; i < 200 && agrees; i++) {
+            int bits = 64 + random.nextInt(961);
+            BigInteger odd = new BigInteger(bits, random).setBit(bits - 1).setBit(0);
+            BigInteger prime = BigInteger.probablePrime(bits / 2 + 2, random);
+            BigInteger semiprime = prime.multiply(BigInteger.probablePrime(bits / 2 + 2, random));
+            for (BigInteger n : new BigInteger[] { odd, prime, semiprime }) {
+                agrees &= BailliePSW.isProbablePrime(n) == n.isProbablePrime(100);
+            }
+        }
+        check("BPSW matches BigInteger, random", agrees);
+
+        // DH public values that would let the peer choose the shared secret must fail the handshake
+        checkRejectedPublicKeys();
+    }
+
+    private static void checkRejectedPublicKeys() {
+        BigInteger p = DiffieHellman.MODP_2048.p;
+        BigInteger[] rejected = {
+                BigInteger.ZERO, BigInteger.ONE, p.subtract(BigInteger.ONE), p, p.add(BigInteger.ONE),
+                BigInteger.valueOf(-2) };
+
+        // The named-group fallback serves every take() without a background prime search
+        DHParameterPool pool = new DHParameterPool(2048, 1, 0, 1, DHParameterPool.Fallback.NAMED_GROUP);
+        pool.shutdown();
+        ServerContext context = new ServerContext(RSA.generateKeyPair(512), pool);
+
+        boolean serverRejects = true;
+        for (BigInteger value : rejected) {
+            TLSServer server = context.newSession();
+            TLSClient client = new TLSClient();
+            server.handleClientHello(client.sendClientHello());
+            serverRejects &= server.handleClientKeyExchange(new TLSMessage(
+                    TLSMessage.MessageType.CLIENT_KEY_EXCHANGE, value.toByteArray())) == null;
+        }
+        check("Server rejects bad client DH public", serverRejects);
+
+        boolean clientRejects = true;
+        for (BigInteger value : rejected) {
+            TLSServer server = context.newSession();
+            TLSClient client = new TLSClient();
+            TLSMessage[] serverMessages = server.handleClientHello(client.sendClientHello());
+            client.handleServerMessages(serverMessages[0], new TLSMessage(
+                    TLSMessage.MessageType.SERVER_CERTIFICATE, withServerDHPublic(serverMessages[1], value)));
+            clientRejects &= client.sendClientKeyExchange() == null;
+        }
+        check("Client rejects bad server DH public", clientRejects);
+    }
+
+    // Certificate payload with its last field (the server DH public value) replaced
+    private static byte[] withServerDHPublic(TLSMessage certificate, BigInteger value) {
+        ByteBuffer original = ByteBuffer.wrap(certificate.getPayload());
+        int offset = 0;
+        for (int i = 0; i < CertificateView.FIELD_COUNT - 1; i++) {
+            offset += 4 + original.getInt(offset);
+        }
+        byte[] field = value.toByteArray();
+        return ByteBuffer.allocate(offset + 4 + field.length)
+                .put(certificate.getPayload(), 0, offset).putInt(field.length).put(field).array();
+    }
+
+    private static void checkComposites(String label, long[] composites) {
+        boolean rejected = true;
+        for (long n : composites) {
+            rejected &= !BailliePSW.isProbablePrime(BigInteger.valueOf(n));
+        }
+        check(label, rejected);
+    }
+
+    private static byte[] chacha(byte[] key, byte[] nonce, int counter, byte[] in, boolean direct) {
+        ChaCha20 cipher = new ChaCha20(key);
+        byte[] out = new byte[in.length];
+        if (direct) {
+            ByteBuffer src = ByteBuffer.allocateDirect(in.length).put(in).flip();
+            ByteBuffer dst = ByteBuffer.allocateDirect(in.length);
+            cipher.process(nonce, counter, src, dst);
+            dst.flip().get(out);
+        } else {
+            cipher.process(nonce, counter, in, 0, out, 0, in.length);
+        }
+        return out;
+    }
+
+    // --------- PRIME SEARCH -------------
+    // The same single-searcher 2048-bit search that fills the DH pool, with the sieve's
+    // counters showing how many candidates never reached Miller-Rabin
+    private static void benchPrimes() {
+        printHeader("Prime search (DH pool fill)");
+
+        int primes = 5;
+        PrimeSieve.resetCounters();
+        long start = System.nanoTime();
+        for (int i = 0; i < primes; i++) {
+            sink = MathUtils.generatePrime(2048, 1);
+        }
+        report("2048-bit prime", (double) (System.nanoTime() - start) / primes);
+
+        long candidates = PrimeSieve.getCandidateCount();
+        long survivors = PrimeSieve.getSurvivorCount();
+        System.out.println(Colors.info(PrimeSieve.stats()));
+        System.out.println(Colors.info(String.format("%-28s %12.1f x fewer Miller-Rabin tests",
+                "Sieve", (double) candidates / Math.max(1, survivors))));
+    }
+
+    // --------- MODULAR INVERSE -------------
+    private static void benchModInverse() {
+        printHeader("Modular inverse");
+
+        for (int bits : new int[] { 1024, 2048, 4096 }) {
+            BigInteger m = BigInteger.probablePrime(bits, Entropy.current());
+            BigInteger[] inputs = new BigInteger[64];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = Entropy.randomBits(bits - 1).add(BigInteger.ONE);
+            }
+
+            int[] next = new int[1];
+            Supplier<BigInteger> input = () -> inputs[next[0]++ & (inputs.length - 1)];
+
+            report(bits + "-bit Euclid", time(() -> MathUtils.modInverseEuclid(input.get(), m)));
+            report(bits + "-bit binary", time(() -> MathUtils.modInverse(input.get(), m)));
+            report(bits + "-bit BigInteger", time(() -> input.get().modInverse(m)));
+        }
+    }
+
+    // --------- RSA PRIVATE KEY -------------
+    private static void benchRsaPrivate() {
+        printHeader("RSA-2048 private-key operation");
+
+        RSA.KeyPair keys = RSA.generateKeyPair(2048);
+        RSA.PrivateKey plain = new RSA.PrivateKey(keys.privateKey.d, keys.privateKey.n);
+        BigInteger c = Entropy.randomBits(2000);
+
+        report("d, n (no CRT)", time(() -> RSA.privateOperation(c, plain)));
+        report("CRT", time(() -> RSA.privateOperation(c, keys.privateKey, false)));
+        report("CRT + fault check", time(() -> RSA.privateOperation(c, keys.privateKey, true)));
+    }
+
+    // --------- SERVER KEY STARTUP -------------
+    private static void benchKeyStore() {
+        printHeader("Server key startup: keygen vs key store");
+
+        try {
+            Path file = Files.createTempFile("server_key", ".bin");
+
+            long start = System.nanoTime();
+            RSA.KeyPair keys = RSA.generateKeyPair(2048);
+            RSAKeyStore.save(keys, file);
+            report("Cold start (keygen + save)", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            RSAKeyStore.load(file);
+            report("Warm start (first load)", System.nanoTime() - start);
+
+            report("Warm start (steady state)", time(() -> {
+                try {
+                    RSAKeyStore.load(file);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+
+            Files.delete(file);
+        } catch (IOException e) {
+            System.out.println(Colors.error("Key store benchmark failed: " + e.getMessage()));
+        }
+    }
+
+    // --------- RECORD CIPHER -------------
+    private static void benchCipher() {
+        printHeader("Record cipher throughput");
+
+        byte[] key = new byte[ChaCha20.KEY_LENGTH];
+        byte[] nonce = new byte[ChaCha20.NONCE_LENGTH];
+        Entropy.fill(key);
+        ChaCha20 cipher = new ChaCha20(key);
+
+        for (int size : new int[] { 64, 1024, 16 * 1024, 1024 * 1024 }) {
+            byte[] data = new byte[size];
+            byte[] out = new byte[size];
+            Entropy.fill(data);
+            ByteBuffer src = ByteBuffer.allocateDirect(size).put(data);
+            ByteBuffer dst = ByteBuffer.allocateDirect(size);
+
+            // The repeating-key XOR the record layer used before
+            reportThroughput(size + " B legacy XOR", size, time(() -> {
+                for (int i = 0; i < size; i++) {
+                    out[i] = (byte) (data[i] ^ key[i % key.length]);
+                }
+            }));
+            reportThroughput(size + " B ChaCha20 array", size,
+                    time(() -> cipher.process(nonce, 0, data, 0, out, 0, size)));
+            reportThroughput(size + " B ChaCha20 direct", size, time(() -> {
+                src.clear();
+                dst.clear();
+                cipher.process(nonce, 0, src, dst);
+            }));
+        }
+    }
+
+    // --------- RECORD MAC -------------
+    private static void benchMac() {
+        printHeader("Per-record HMAC-SHA256");
+
+        byte[] key = new byte[32];
+        byte[] tag = new byte[HMAC.MAC_LENGTH];
+        Entropy.fill(key);
+        HMAC keyed = new HMAC(key);
+
+        for (int size : new int[] { 64, 16 * 1024 }) {
+            byte[] record = new byte[size];
+            Entropy.fill(record);
+
+            report(size + " B one-shot", time(() -> HMAC.compute(key, record)));
+            report(size + " B precomputed pads", time(() -> keyed.update(record, 0, size).doFinal(tag, 0)));
+        }
+    }
+
+    // --------- MESSAGE CODEC -------------
+    private static void benchCodec() {
+        printHeader("TLSMessage encoding: Java serialization vs MessageCodec");
+
+        byte[] random = new byte[32];
+        byte[] certificate = new byte[1300];
+        byte[] record = new byte[64 + 44];
+        Entropy.fill(random);
+        Entropy.fill(certificate);
+        Entropy.fill(record);
+
+        TLSMessage[] messages = {
+                new TLSMessage(TLSMessage.MessageType.SERVER_HELLO, random, null, "1a2b3c4d"),
+                new TLSMessage(TLSMessage.MessageType.SERVER_CERTIFICATE, certificate),
+                new TLSMessage(TLSMessage.MessageType.APPLICATION_DATA, record)
+        };
+
+        for (TLSMessage message : messages) {
+            String name = message.getType().toString();
+            byte[] serialized = serialize(message);
+            byte[] encoded = MessageCodec.encode(message);
+
+            System.out.println(Colors.info(String.format("%-28s %8d B serialized %6d B codec",
+                    name + " size", serialized.length, encoded.length)));
+            report(name + " serialize", time(() -> serialize(message)));
+            report(name + " deserialize", time(() -> deserialize(serialized)));
+            report(name + " encode", time(() -> MessageCodec.encode(message)));
+            report(name + " decode", time(() -> MessageCodec.decode(encoded)));
+        }
+    }
+
+    // --------- CONCURRENT HANDSHAKES -------------
+    // Per-connection setup (initialize() vs a session on a shared context), then full
+    // handshakes over loopback against NioTLSServer, for worker pools up to the core count
+    // The clients run in this process too, so their half of the modPow work shares the same cores
+    private static void benchHandshakes() {
+        printHeader("ServerContext sessions and NioTLSServer load test");
+
+        Log.Level previousLevel = Log.getLevel();
+        Log.setLevel(Log.Level.WARN);
+        long start = System.nanoTime();
+        TLSServer initialized = new TLSServer();
+        initialized.initialize();
+        report("TLSServer.initialize()", System.nanoTime() - start);
+        initialized.shutdown();
+
+        ServerContext context = ServerContext.load(DHParameterPool.Fallback.NAMED_GROUP);
+        report("ServerContext.newSession()", time(() -> sink = context.newSession()));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int clients = Math.max(8, 4 * cores);
+        try {
+            runHandshakeLoad(context, 1, clients, 1_000_000_000L);  // Warm-up
+
+            for (int workers = 1; ; workers = Math.min(workers * 2, cores)) {
+                start = System.nanoTime();
+                long count = runHandshakeLoad(context, workers, clients, 3_000_000_000L);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println(Colors.info(String.format("%-28s %12.1f handshakes/s",
+                        workers + " workers, " + clients + " clients", count / seconds)));
+                if (workers == cores) {
+                    break;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println(Colors.error("Handshake load test failed: " + e.getMessage()));
+        } finally {
+            context.shutdown();
+            Log.setLevel(previousLevel);
+        }
+    }
+
+    // Run clients back-to-back handshakes for the given time; returns handshakes completed
+    private static long runHandshakeLoad(ServerContext context, int workers, int clients, long nanos)
+            throws IOException, InterruptedException {
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (NioTLSServer nio = new NioTLSServer(context, any, workers, data -> data)) {
+            nio.start();
+            runHandshakeClients(nio.getAddress(), clients, nanos);
+            return nio.getCompletedHandshakes();
+        }
+    }
+
+    // Each client thread runs back-to-back handshakes, one connection apiece, until time is up
+    private static void runHandshakeClients(InetSocketAddress address, int clients, long nanos)
+            throws InterruptedException {
+        long end = System.nanoTime() + nanos;
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    try (Transport transport = SocketChannelTransport.connect(address, 10)) {
+                        handshake(transport);
+                        transport.send(null);
+                    } catch (IOException | InterruptedException e) {
+                        System.out.println(Colors.error("Client failed: " + e.getMessage()));
+                        return;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    // --------- THREAD-PER-CONNECTION -------------
+    // BlockingTLSServer on virtual vs platform threads: handshake throughput, then the
+    // memory each idle connection costs (connections parked waiting for CLIENT_HELLO,
+    // so only the thread and its transport differ between the two modes)
+    private static void benchThreads() {
+        printHeader("BlockingTLSServer: virtual vs platform threads");
+
+        Log.Level previousLevel = Log.getLevel();
+        Log.setLevel(Log.Level.WARN);
+        ServerContext context = ServerContext.load(DHParameterPool.Fallback.NAMED_GROUP);
+
+        int clients = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+        int idle = 2000;
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try {
+            // Throwaway round so first-time heap growth isn't charged to either mode
+            try (BlockingTLSServer warmUp =
+                         new BlockingTLSServer(context, any, BlockingTLSServer.Threads.PLATFORM, data -> data)) {
+                warmUp.start();
+                idleConnectionCost(warmUp, idle);
+            }
+
+            for (BlockingTLSServer.Threads threads : BlockingTLSServer.Threads.values()) {
+                try (BlockingTLSServer blocking = new BlockingTLSServer(context, any, threads, data -> data)) {
+                    blocking.start();
+                    String name = threads + (threads == BlockingTLSServer.Threads.VIRTUAL && !blocking.isVirtual()
+                            ? " (platform fallback)" : "");
+
+                    runHandshakeClients(blocking.getAddress(), clients, 1_000_000_000L);  // Warm-up
+                    long before = blocking.getCompletedHandshakes();
+                    long start = System.nanoTime();
+                    runHandshakeClients(blocking.getAddress(), clients, 3_000_000_000L);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.println(Colors.info(String.format("%-40s %12.1f handshakes/s",
+                            name + ", " + clients + " clients", (blocking.getCompletedHandshakes() - before) / seconds)));
+
+                    double[] perConnection = idleConnectionCost(blocking, idle);
+                    System.out.println(Colors.info(String.format("%-40s %8.1f KB heap %8.1f KB RSS",
+                            name + ", per idle connection", perConnection[0], perConnection[1])));
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println(Colors.error("Thread benchmark failed: " + e.getMessage()));
+        } finally {
+            context.shutdown();
+            Log.setLevel(previousLevel);
+        }
+    }
+
+    // Open idle connections and return { heap KB, RSS KB } each one adds
+    private static double[] idleConnectionCost(BlockingTLSServer blocking, int idle)
+            throws IOException, InterruptedException {
+        long[] baseline = memoryInUse();
+        List<SocketChannel> open = new ArrayList<>();
+        for (int i = 0; i < idle; i++) {
+            open.add(SocketChannel.open(blocking.getAddress()));
+        }
+        while (blocking.getOpenConnections() < idle) {
+            Thread.sleep(10);
+        }
+        long[] loaded = memoryInUse();
+
+        for (SocketChannel channel : open) {
+            channel.close();
+        }
+        return new double[] {
+                (loaded[0] - baseline[0]) / 1024.0 / idle,
+                (loaded[1] - baseline[1]) / 1024.0 / idle
+        };
+    }
+
+    // { heap in use after a GC, resident set size } in bytes; RSS is 0 where /proc is missing
+    private static long[] memoryInUse() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+
+        long rss = 0;
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    rss = Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return new long[] { heap, rss };
+    }
+
+    // --------- SAME-HOST TRANSPORTS -------------
+    // Round trip of one 64-byte record: this thread sends, an echo thread sends it back
+    private static void benchIpc() {
+        printHeader("Transport round trip: loopback TCP vs shared memory");
+
+        TLSMessage record = new TLSMessage(TLSMessage.MessageType.APPLICATION_DATA,
+                new byte[RecordLayer.HEADER_LENGTH + 64 + RecordLayer.MAC_LENGTH]);
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try {
+            try (ServerSocketChannel listener = ServerSocketChannel.open().bind(any);
+                 Transport client = SocketChannelTransport.connect((InetSocketAddress) listener.getLocalAddress(), 10);
+                 Transport server = SocketChannelTransport.accept(listener)) {
+                reportRoundTrip("SocketChannelTransport", client, server, record);
+            }
+
+            Path file = Files.createTempFile("tls_shm", ".bin");
+            try (Transport server = SharedMemoryTransport.create(file, SharedMemoryTransport.DEFAULT_CAPACITY);
+                 Transport client = SharedMemoryTransport.open(file, 10)) {
+                reportRoundTrip("SharedMemoryTransport", client, server, record);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println(Colors.error("Transport benchmark failed: " + e.getMessage()));
+        }
+    }
+
+    private static void reportRoundTrip(String label, Transport client, Transport server, TLSMessage record)
+            throws IOException, InterruptedException {
+        Thread echo = new Thread(() -> {
+            try {
+                TLSMessage message;
+                while ((message = server.receive()) != null) {
+                    server.send(message);
+                }
+            } catch (IOException e) {
+                System.out.println(Colors.error("Echo failed: " + e.getMessage()));
+            }
+        });
+        echo.start();
+
+        report(label, time(() -> {
+            try {
+                client.send(record);
+                client.receive();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+
+        client.send(null);
+        echo.join();
+    }
+
+    private static void handshake(Transport transport) throws IOException {
+        TLSClient client = new TLSClient();
+        transport.send(client.sendClientHello());
+        client.handleServerMessages(transport.receive(), transport.receive());
+        transport.send(client.sendClientKeyExchange());
+        transport.send(client.handleServerFinished(transport.receive()));
+    }
+
+    private static byte[] serialize(TLSMessage message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static TLSMessage deserialize(byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (TLSMessage) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // ------------ UTILITY METHODS -------------
+
+    // Average nanoseconds per call after a warm-up phase
+    private static double time(Runnable task) {
+        for (long end = System.nanoTime() + 500_000_000L; System.nanoTime() < end; ) {
+            task.run();
+        }
+
+        int calls = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            task.run();
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < 1_000_000_000L);
+
+        return (double) elapsed / calls;
+    }
+
+    private static void check(String label, byte[] actual, String expectedHex) {
+        check(label, ByteUtils.toHex(actual).equalsIgnoreCase(expectedHex));
+    }
+
+    private static void check(String label, boolean passed) {
+        if (passed) {
+            System.out.println(Colors.success(String.format("%-40s ok", label)));
+        } else {
+            System.out.println(Colors.error(String.format("%-40s FAILED", label)));
+            failures++;
+        }
+    }
+
+    // 00 01 02 ... (length - 1), the key pattern the RFC vectors use
+    private static byte[] sequence(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static void printHeader(String title) {
+        System.out.println(Colors.BOLD_CYAN + "---------- " + title + " ----------" + Colors.RESET);
+    }
+
+    private static void report(String label, double nanos) {
+        System.out.println(Colors.info(String.format("%-28s %12.1f us/op", label, nanos / 1000)));
+    }
+
+    private static void reportThroughput(String label, int bytes, double nanos) {
+        System.out.println(Colors.info(String.format("%-28s %12.1f us/op %10.1f MB/s",
+                label, nanos / 1000, bytes * 1000.0 / nanos)));
+    }
+}
@@ -1,189 +1,211 @@
 import protocol.*;
 import utils.Colors;
+import utils.Log;
 import java.util.Scanner;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
 
 public class Main {
 
-    private static final String CLIENT_TO_SERVER = "client_to_server.msg";
-    private static final String SERVER_TO_CLIENT = "server_to_client.msg";
+    private static final int DEFAULT_PORT = 4433;
+    private static final long CONNECT_RETRY_MILLIS = 200;
+    private static final Path SHARED_MEMORY_FILE = Paths.get("tls_shm.bin");
 
     public static void main(String[] args) {
+        // Transport: TCP on a loopback port (default), or "shm" for a memory-mapped file
+        boolean sharedMemory = args.length > 1 && args[1].equalsIgnoreCase("shm");
+        int port = args.length > 1 && !sharedMemory ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
         if (args[0].equalsIgnoreCase("server")) {
-            runServer();
+            runServer(sharedMemory
+                    ? () -> SharedMemoryTransport.create(SHARED_MEMORY_FILE, SharedMemoryTransport.DEFAULT_CAPACITY)
+                    : () -> listen(address));
         } else if (args[0].equalsIgnoreCase("client")) {
-            runClient();
+            runClient(sharedMemory
+                    ? () -> SharedMemoryTransport.open(SHARED_MEMORY_FILE, CONNECT_RETRY_MILLIS)
+                    : () -> SocketChannelTransport.connect(address, CONNECT_RETRY_MILLIS));
         } else {
-            System.out.println("Usage: java Main [server|client]");
+            System.out.println("Usage: java Main [server|client] [port|shm]");
             System.out.println("Or just: java Main (to launch both terminals)");
         }
     }
 
     // --------- SERVER MODE -------------
-    private static void runServer() {
+    private static void runServer(Callable<Transport> connect) {
         Scanner scanner = new Scanner(System.in);
         printHeader("SERVER", Colors.BOLD_MAGENTA);
+        TLSServer server = new TLSServer();
+
+        // Save pooled DH parameters on any exit (chat mode exits via System.exit)
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
 
+        Transport transport = null;
         try {
-            TLSServer server = new TLSServer();
 
             // Phase 1: Initialize
             pressEnterToContinue(scanner, "Press ENTER to initialize server", Colors.MAGENTA);
             server.initialize();
-            System.out.println(Colors.success("Server initialized!"));
+            Log.success("Server initialized!");
 
-            // Signal client that server is ready
-            new File("server_ready.flag").createNewFile();
+            // Only open the transport once initialized, so a client that connects knows the server is ready
+            transport = connect.call();
 
             // Phase 2: Receive Client Hello
-            System.out.println("\n" + Colors.server("Waiting for CLIENT_HELLO..."));
-            TLSMessage clientHello = waitForMessage(CLIENT_TO_SERVER);
-            System.out.println(Colors.success("Received CLIENT_HELLO from client!"));
+            Log.server("\nWaiting for CLIENT_HELLO...");
+            TLSMessage clientHello = transport.receive();
+            Log.success("Received CLIENT_HELLO from client!");
 
             // Phase 3: Send Server Hello + Certificate
             pressEnterToContinue(scanner, "Press ENTER to send SERVER_HELLO and CERTIFICATE", Colors.MAGENTA);
             TLSMessage[] serverMessages = server.handleClientHello(clientHello);
-            saveMessage(SERVER_TO_CLIENT, serverMessages[0]); // Server Hello
-
-            // Wait for client to read the first message
-            while (new File(SERVER_TO_CLIENT).exists()) {
-                Thread.sleep(50);
-            }
-            saveMessage(SERVER_TO_CLIENT, serverMessages[1]); // Certificate
-            System.out.println(Colors.success("Sent SERVER_HELLO and CERTIFICATE to client!"));
+            transport.send(serverMessages[0]); // Server Hello
+            transport.send(serverMessages[1]); // Certificate
+            Log.success("Sent SERVER_HELLO and CERTIFICATE to client!");
 
             // Phase 4: Receive Client Key Exchange
-            System.out.println("\n" + Colors.server("Waiting for CLIENT_KEY_EXCHANGE..."));
-            TLSMessage clientKeyExchange = waitForMessage(CLIENT_TO_SERVER);
-            System.out.println(Colors.success("Received CLIENT_KEY_EXCHANGE from client!"));
+            Log.server("\nWaiting for CLIENT_KEY_EXCHANGE...");
+            TLSMessage clientKeyExchange = transport.receive();
+            Log.success("Received CLIENT_KEY_EXCHANGE from client!");
 
             // Phase 5: Send Server Finished
             pressEnterToContinue(scanner, "Press ENTER to compute shared secret and send FINISHED", Colors.MAGENTA);
             TLSMessage serverFinished = server.handleClientKeyExchange(clientKeyExchange);
-            saveMessage(SERVER_TO_CLIENT, serverFinished);
-            System.out.println(Colors.success("Sent SERVER_FINISHED to client!"));
+            if (serverFinished == null) {
+                Log.error("Handshake failed!");
+                return;
+            }
+            transport.send(serverFinished);
+            Log.success("Sent SERVER_FINISHED to client!");
 
             // Phase 6: Receive Client Finished
-            System.out.println("\n" + Colors.server("Waiting for CLIENT_FINISHED..."));
-            TLSMessage clientFinished = waitForMessage(CLIENT_TO_SERVER);
+            Log.server("\nWaiting for CLIENT_FINISHED...");
+            TLSMessage clientFinished = transport.receive();
             boolean success = server.handleClientFinished(clientFinished);
 
             if (!success) {
-                System.out.println(Colors.error("Handshake failed!"));
+                Log.error("Handshake failed!");
                 return;
             }
 
+            Log.flush();
             System.out.println(Colors.BOLD_GREEN + "-------SECURE CONNECTION ESTABLISHED!---------" + Colors.RESET);
 
             // Chat mode
-            chatMode(scanner, server, "SERVER", Colors.BOLD_MAGENTA);
+            chatMode(scanner, server, transport, "SERVER", Colors.BOLD_MAGENTA);
 
         } catch (Exception e) {
-            System.out.println(Colors.error("Error: " + e.getMessage()));
+            Log.error("Error: {}", e.getMessage());
             e.printStackTrace();
         } finally {
-            cleanup();
+            closeQuietly(transport);
             scanner.close();
         }
     }
 
     // --------- CLIENT MODE -------------
-    private static void runClient() {
+    private static void runClient(Callable<Transport> connect) {
         Scanner scanner = new Scanner(System.in);
         printHeader("CLIENT", Colors.BOLD_CYAN);
 
+        Transport transport = null;
         try {
             TLSClient client = new TLSClient();
 
-            // Wait for server to be ready
-            System.out.println(Colors.client("Waiting for server to initialize..."));
-            waitForFile("server_ready.flag");
-            deleteFile("server_ready.flag");
-            System.out.println(Colors.success("Server is ready!"));
+            // Wait for server to be ready (it opens its end once initialized)
+            Log.client("Waiting for server to initialize...");
+            transport = connect.call();
+            Log.success("Server is ready!");
 
             // Phase 1: Client Hello
             pressEnterToContinue(scanner, "Press ENTER to send CLIENT_HELLO to server", Colors.CYAN);
             TLSMessage clientHello = client.sendClientHello();
-            saveMessage(CLIENT_TO_SERVER, clientHello);
-            System.out.println(Colors.success("CLIENT_HELLO sent to server!"));
+            transport.send(clientHello);
+            Log.success("CLIENT_HELLO sent to server!");
 
             // Phase 2: Receive Server Hello + Certificate
-            System.out.println("\n" + Colors.client("Waiting for server response..."));
-            TLSMessage[] serverMessages = waitForServerMessages();
-            System.out.println(Colors.success("Received SERVER_HELLO and CERTIFICATE from server!"));
+            Log.client("\nWaiting for server response...");
+            TLSMessage serverHello = transport.receive();
+            TLSMessage serverCert = transport.receive();
+            Log.success("Received SERVER_HELLO and CERTIFICATE from server!");
 
             // Phase 3: Process certificate and send key exchange
             pressEnterToContinue(scanner, "Press ENTER to process certificate and send key exchange", Colors.CYAN);
-            client.handleServerMessages(serverMessages[0], serverMessages[1]);
+            client.handleServerMessages(serverHello, serverCert);
             TLSMessage clientKeyExchange = client.sendClientKeyExchange();
-            saveMessage(CLIENT_TO_SERVER, clientKeyExchange);
-            System.out.println(Colors.success("CLIENT_KEY_EXCHANGE sent to server!"));
+            if (clientKeyExchange == null) {
+                Log.error("Handshake failed!");
+                return;
+            }
+            transport.send(clientKeyExchange);
+            Log.success("CLIENT_KEY_EXCHANGE sent to server!");
 
             // Phase 4: Receive Server Finished
-            System.out.println("\n" + Colors.client("Waiting for server to finish handshake..."));
-            TLSMessage serverFinished = waitForMessage(SERVER_TO_CLIENT);
-            System.out.println(Colors.success("Received SERVER_FINISHED from server!"));
+            Log.client("\nWaiting for server to finish handshake...");
+            TLSMessage serverFinished = transport.receive();
+            Log.success("Received SERVER_FINISHED from server!");
 
             // Phase 5: Send Client Finished
             pressEnterToContinue(scanner, "Press ENTER to send CLIENT_FINISHED", Colors.CYAN);
             TLSMessage clientFinished = client.handleServerFinished(serverFinished);
-            saveMessage(CLIENT_TO_SERVER, clientFinished);
-            System.out.println(Colors.success("CLIENT_FINISHED sent to server!"));
+            transport.send(clientFinished);
+            Log.success("CLIENT_FINISHED sent to server!");
 
+            Log.flush();
             System.out.println(Colors.BOLD_GREEN + "-------SECURE CONNECTION ESTABLISHED!---------" + Colors.RESET);
 
 
             // Chat mode
-            chatMode(scanner, client, "CLIENT", Colors.BOLD_CYAN);
+            chatMode(scanner, client, transport, "CLIENT", Colors.BOLD_CYAN);
 
         } catch (Exception e) {
-            System.out.println(Colors.error("Error: " + e.getMessage()));
+            Log.error("Error: {}", e.getMessage());
             e.printStackTrace();
         } finally {
-            cleanup();
+            closeQuietly(transport);
             scanner.close();
         }
     }
 
     // --------- CHAT MODE -------------
-    private static void chatMode(Scanner scanner, Object party, String role, String color) {
+    private static void chatMode(Scanner scanner, Object party, Transport transport, String role, String color) {
         boolean isServer = role.equals("SERVER");
-        String myFile = isServer ? SERVER_TO_CLIENT : CLIENT_TO_SERVER;
-        String theirFile = isServer ? CLIENT_TO_SERVER : SERVER_TO_CLIENT;
         String otherRole = isServer ? "CLIENT" : "SERVER";
         String otherColor = isServer ? Colors.BOLD_CYAN : Colors.BOLD_MAGENTA;
 
+        Log.flush();
         System.out.println(color + "------------- SECURE CHAT MODE ACTIVATED ------------------" + Colors.RESET);
-        System.out.println(Colors.info("Type your messages and press ENTER to send"));
-        System.out.println(Colors.info("Messages are encrypted before transmission!"));
-        System.out.println(Colors.info("Type 'quit' to exit\n"));
+        Log.info("Type your messages and press ENTER to send");
+        Log.info("Messages are encrypted before transmission!");
+        Log.info("Type 'quit' to exit\n");
 
-        // Start receiver thread
+        // Start receiver thread (blocks in receive until the peer sends something)
         Thread receiverThread = new Thread(() -> {
             try {
-                while (true) {
-                    if (new File(theirFile).exists()) {
-                        TLSMessage encrypted = loadMessage(theirFile);
-                        deleteFile(theirFile);
-
-                        if (encrypted == null) { // Quit signal
-                            System.out.println("\n" + Colors.info(otherRole + " disconnected."));
-                            System.exit(0);
-                        }
-
-                        String decrypted;
-                        if (isServer) {
-                            decrypted = ((TLSServer) party).receiveData(encrypted);
-                        } else {
-                            decrypted = ((TLSClient) party).receiveData(encrypted);
-                        }
-
-                        System.out.println("\n" + otherColor + otherRole + Colors.RESET + ": " + decrypted);
-                        System.out.print(color + role + Colors.RESET + ": ");
-                        System.out.flush();
+                TLSMessage encrypted;
+                while ((encrypted = transport.receive()) != null) {
+                    String decrypted;
+                    if (isServer) {
+                        decrypted = ((TLSServer) party).receiveData(encrypted);
+                    } else {
+                        decrypted = ((TLSClient) party).receiveData(encrypted);
                     }
-                    Thread.sleep(100);
+
+                    Log.flush();
+                    System.out.println("\n" + otherColor + otherRole + Colors.RESET + ": " + decrypted);
+                    System.out.print(color + role + Colors.RESET + ": ");
+                    System.out.flush();
                 }
+
+                // Quit signal, or the connection was closed
+                Log.flush();
+                System.out.println("\n" + Colors.info(otherRole + " disconnected."));
+                System.exit(0);
             } catch (Exception e) {
                 // Thread stopped
             }
@@ -193,17 +215,18 @@ public class Main {
 
         // Send messages
         while (true) {
+            Log.flush();
             System.out.print(color + role + Colors.RESET + ": ");
             String message = scanner.nextLine();
 
             if (message.equalsIgnoreCase("quit")) {
                 try {
-                    saveMessage(myFile, null); // Signal quit
+                    transport.send(null); // Signal quit
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                System.out.println(Colors.info("Closing connection..."));
-                System.out.println(Colors.success("Connection closed. Goodbye!"));
+                Log.info("Closing connection...");
+                Log.success("Connection closed. Goodbye!");
                 break;
             }
 
@@ -216,10 +239,10 @@ public class Main {
                 } else {
                     encrypted = ((TLSClient) party).sendData(message);
                 }
-                saveMessage(myFile, encrypted);
-                System.out.println(Colors.success("Encrypted and sent!"));
+                transport.send(encrypted);
+                Log.success("Encrypted and sent!");
             } catch (Exception e) {
-                System.out.println(Colors.error("Failed to send: " + e.getMessage()));
+                Log.error("Failed to send: {}", e.getMessage());
             }
         }
     }
@@ -232,58 +255,28 @@ public class Main {
     }
 
     private static void pressEnterToContinue(Scanner scanner, String message, String color) {
+        Log.flush();
         System.out.print("\n" + color + "→ " + Colors.RESET + message + ": ");
         scanner.nextLine();
     }
 
-    private static void saveMessage(String filename, TLSMessage message) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(message);
+    // Wait for one client on the loopback port
+    private static Transport listen(InetSocketAddress address) throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(address);
+            Log.info("Listening on {}", address);
+            return SocketChannelTransport.accept(listener);
         }
     }
 
-    private static TLSMessage loadMessage(String filename) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            return (TLSMessage) ois.readObject();
+    private static void closeQuietly(Closeable transport) {
+        if (transport == null) {
+            return;
         }
-    }
-
-    private static TLSMessage[] waitForServerMessages() throws Exception {
-        // Wait for server hello
-        waitForFile(SERVER_TO_CLIENT);
-        TLSMessage serverHello = loadMessage(SERVER_TO_CLIENT);
-        deleteFile(SERVER_TO_CLIENT);
-
-        // Wait for certificate
-        waitForFile(SERVER_TO_CLIENT);
-        TLSMessage serverCert = loadMessage(SERVER_TO_CLIENT);
-        deleteFile(SERVER_TO_CLIENT);
-
-        return new TLSMessage[] { serverHello, serverCert };
-    }
-
-    private static TLSMessage waitForMessage(String filename) throws Exception {
-        waitForFile(filename);
-        TLSMessage message = loadMessage(filename);
-        deleteFile(filename);
-        return message;
-    }
-
-    private static void waitForFile(String filename) throws InterruptedException {
-        File file = new File(filename);
-        while (!file.exists()) {
-            Thread.sleep(100);
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // Nothing left to do on the way out
         }
-        Thread.sleep(50); // Ensure write is complete
-    }
-
-    private static void deleteFile(String filename) {
-        new File(filename).delete();
-    }
-
-    private static void cleanup() {
-        deleteFile(CLIENT_TO_SERVER);
-        deleteFile(SERVER_TO_CLIENT);
-        deleteFile("server_ready.flag");
     }
-}
\ No newline at end of file
+}
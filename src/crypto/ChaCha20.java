@@ -0,0 +1,185 @@
+package crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+ // ChaCha20 stream cipher (RFC 8439)
+ // The keystream is XORed in 8-byte long lanes rather than byte by byte, and all
+ // state lives in arrays owned by the instance, so processing allocates nothing.
+ // 16-byte keys use the original ChaCha "expand 16-byte k" variant.
+ // Not thread-safe: use one instance per direction.
+public class ChaCha20 {
+
+    public static final int KEY_LENGTH = 32;
+    public static final int NONCE_LENGTH = 12;
+    public static final int BLOCK_LENGTH = 64;
+
+    private static final int[] SIGMA = { 0x61707865, 0x3320646e, 0x79622d32, 0x6b206574 };  // "expand 32-byte k"
+    private static final int[] TAU = { 0x61707865, 0x3120646e, 0x79622d36, 0x6b206574 };    // "expand 16-byte k"
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private final int[] input = new int[16];    // Constants, key, counter, nonce
+    private final long[] lanes = new long[8];   // Keystream block as little-endian longs
+
+    public ChaCha20(byte[] key) {
+        if (key.length != 32 && key.length != 16) {
+            throw new IllegalArgumentException("ChaCha20 key must be 16 or 32 bytes");
+        }
+
+        int[] constants = key.length == 32 ? SIGMA : TAU;
+        System.arraycopy(constants, 0, input, 0, 4);
+        for (int i = 0; i < 8; i++) {
+            // A 16-byte key fills both halves of the key words
+            input[4 + i] = readIntLE(key, (4 * i) % key.length);
+        }
+    }
+
+
+     // XOR the keystream for (nonce, counter) into in, writing to out (may be the same array)
+    public void process(byte[] nonce, int counter, byte[] in, int inOffset, byte[] out, int outOffset, int length) {
+        process(nonce, counter,
+                ByteBuffer.wrap(in, inOffset, length),
+                ByteBuffer.wrap(out, outOffset, length));
+    }
+
+
+     // XOR the keystream for (nonce, counter) over src.remaining() bytes into dst
+     // Both buffers advance; they may be heap or direct, and may be the same buffer
+    public void process(byte[] nonce, int counter, ByteBuffer src, ByteBuffer dst) {
+        if (nonce.length != NONCE_LENGTH) {
+            throw new IllegalArgumentException("ChaCha20 nonce must be 12 bytes");
+        }
+        int length = src.remaining();
+        if (dst.remaining() < length) {
+            throw new IllegalArgumentException("Destination buffer too small");
+        }
+
+        input[12] = counter;
+        input[13] = readIntLE(nonce, 0);
+        input[14] = readIntLE(nonce, 4);
+        input[15] = readIntLE(nonce, 8);
+
+        boolean srcSwap = src.order() != ByteOrder.LITTLE_ENDIAN;
+        boolean dstSwap = dst.order() != ByteOrder.LITTLE_ENDIAN;
+        int s = src.position();
+        int d = dst.position();
+        int end = s + length;
+
+        // Whole blocks: eight 64-bit lanes each
+        while (end - s >= BLOCK_LENGTH) {
+            nextBlock();
+            for (int i = 0; i < 8; i++) {
+                long x = src.getLong(s);
+                if (srcSwap) {
+                    x = Long.reverseBytes(x);
+                }
+                x ^= lanes[i];
+                dst.putLong(d, dstSwap ? Long.reverseBytes(x) : x);
+                s += 8;
+                d += 8;
+            }
+        }
+
+        // Tail: remaining lanes, then single bytes
+        if (s < end) {
+            nextBlock();
+            int lane = 0;
+            while (end - s >= 8) {
+                long x = src.getLong(s);
+                if (srcSwap) {
+                    x = Long.reverseBytes(x);
+                }
+                x ^= lanes[lane++];
+                dst.putLong(d, dstSwap ? Long.reverseBytes(x) : x);
+                s += 8;
+                d += 8;
+            }
+            long ks = lanes[lane];
+            while (s < end) {
+                dst.put(d++, (byte) (src.get(s++) ^ ks));
+                ks >>>= 8;
+            }
+        }
+
+        src.position(end);
+        dst.position(d);
+    }
+
+
+     // Produce the keystream block for the current counter, then advance the counter
+     // The state is kept in locals so the rounds run entirely in registers
+    private void nextBlock() {
+        int[] in = input;
+        int x0 = in[0], x1 = in[1], x2 = in[2], x3 = in[3];
+        int x4 = in[4], x5 = in[5], x6 = in[6], x7 = in[7];
+        int x8 = in[8], x9 = in[9], x10 = in[10], x11 = in[11];
+        int x12 = in[12], x13 = in[13], x14 = in[14], x15 = in[15];
+
+        for (int i = 0; i < 10; i++) {
+            // Column round
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16);
+            x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8);
+            x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16);
+            x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8);
+            x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16);
+            x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8);
+            x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16);
+            x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8);
+            x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+
+            // Diagonal round
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16);
+            x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8);
+            x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16);
+            x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8);
+            x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16);
+            x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8);
+            x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16);
+            x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8);
+            x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+        }
+
+        long[] l = lanes;
+        l[0] = lane(x0 + in[0], x1 + in[1]);
+        l[1] = lane(x2 + in[2], x3 + in[3]);
+        l[2] = lane(x4 + in[4], x5 + in[5]);
+        l[3] = lane(x6 + in[6], x7 + in[7]);
+        l[4] = lane(x8 + in[8], x9 + in[9]);
+        l[5] = lane(x10 + in[10], x11 + in[11]);
+        l[6] = lane(x12 + in[12], x13 + in[13]);
+        l[7] = lane(x14 + in[14], x15 + in[15]);
+
+        in[12]++;
+    }
+
+
+    private static long lane(int lo, int hi) {
+        return (lo & MASK) | ((long) hi << 32);
+    }
+
+
+    private static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) |
+                ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,232 @@
+package crypto;
+
+import utils.BailliePSW;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+ // Pool of DH parameters generated ahead of time by background workers
+ // Handshakes take ready-made parameters instead of searching for a prime inline.
+ // Whenever the pool (plus generations in flight) drops to the low watermark,
+ // workers are scheduled to fill it back up to capacity.
+public class DHParameterPool {
+
+    // What take() does when the pool is empty
+    public enum Fallback {
+        BLOCK,          // Wait for a worker to finish the next parameter set
+        REUSE_LAST,     // Hand out the previous parameters again (blocks if there are none yet)
+        NAMED_GROUP     // Use the fixed RFC 3526 2048-bit group
+    }
+
+    private static final int FILE_MAGIC = 0x44485031;  // "DHP1"
+    private static final int MAX_PARAM_BYTES = 1024;   // Sanity bound when loading
+    private static final long AWAIT_POLL_MILLIS = 100;  // How often a waiting take() checks for shutdown
+
+    private final int bitLength;
+    private final int capacity;
+    private final int lowWatermark;
+    private final Fallback fallback;
+
+    private final BlockingQueue<DiffieHellman.DHParameters> pool;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ExecutorService workers;
+    private volatile DiffieHellman.DHParameters last;
+    private volatile boolean shutdown;
+    private final ReentrantLock refillLock = new ReentrantLock();  // Not synchronized: handshakes may run on virtual threads
+
+    public DHParameterPool(int bitLength, int capacity, int lowWatermark, int workerThreads, Fallback fallback) {
+        if (capacity < 1 || lowWatermark < 0 || lowWatermark >= capacity) {
+            throw new IllegalArgumentException("Need 0 <= lowWatermark < capacity");
+        }
+
+        this.bitLength = bitLength;
+        this.capacity = capacity;
+        this.lowWatermark = lowWatermark;
+        this.fallback = fallback;
+        this.pool = new LinkedBlockingQueue<>(capacity);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "dh-param-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+
+     // Start background generation up to capacity
+    public void start() {
+        refill();
+    }
+
+
+     // Take parameters for one handshake, applying the fallback policy if the pool is empty
+     // Throws IllegalStateException if it would have to wait after shutdown()
+    public DiffieHellman.DHParameters take() {
+        DiffieHellman.DHParameters params = pool.poll();
+
+        if (params == null) {
+            switch (fallback) {
+                case NAMED_GROUP:
+                    params = DiffieHellman.MODP_2048;
+                    break;
+                case REUSE_LAST:
+                    // Nothing handed out yet, so wait like BLOCK
+                    params = last != null ? last : awaitNext();
+                    break;
+                default:
+                    params = awaitNext();
+                    break;
+            }
+        }
+
+        last = params;
+        if (pool.size() + inFlight.get() <= lowWatermark) {
+            refill();
+        }
+        return params;
+    }
+
+
+    public int size() {
+        return pool.size();
+    }
+
+
+     // Stop background workers (parameters already in the pool stay available)
+     // A take() that would have to wait for a worker then fails instead of blocking forever
+    public void shutdown() {
+        shutdown = true;
+        workers.shutdownNow();
+    }
+
+
+     // Persist the parameters currently in the pool
+     // Format: [magic][count] then per entry [len][p][len][g]
+    public void save(Path file) throws IOException {
+        Object[] snapshot = pool.toArray();
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(snapshot.length);
+            for (Object entry : snapshot) {
+                DiffieHellman.DHParameters params = (DiffieHellman.DHParameters) entry;
+                writeBigInteger(out, params.p);
+                writeBigInteger(out, params.g);
+            }
+        }
+    }
+
+
+     // Load previously saved parameters (entries of the wrong size or with a composite p are skipped)
+     // The file may be corrupt or tampered with, so every p gets a Baillie-PSW test; load is
+     // off the handshake path, and that costs far less than the search that found it
+     // Returns the number of parameter sets added to the pool
+    public int load(Path file) throws IOException {
+        int added = 0;
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a DH parameter file: " + file);
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                BigInteger p = readBigInteger(in);
+                BigInteger g = readBigInteger(in);
+
+                // g must lie in [2, p-2], like the public values DiffieHellman.isValidPublicKey accepts
+                if (p.bitLength() != bitLength || !p.testBit(0) || !DiffieHellman.isValidPublicKey(g, p)) {
+                    continue;
+                }
+                if (!BailliePSW.isProbablePrime(p)) {
+                    continue;
+                }
+                if (pool.offer(new DiffieHellman.DHParameters(p, g))) {
+                    added++;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated DH parameter file: " + file, e);
+        }
+
+        return added;
+    }
+
+
+     // Schedule workers until pool plus in-flight generations reach capacity
+    private void refill() {
+        refillLock.lock();
+        try {
+            while (pool.size() + inFlight.get() < capacity) {
+                inFlight.incrementAndGet();
+                try {
+                    workers.execute(() -> {
+                        try {
+                            pool.offer(DiffieHellman.createParameters(bitLength));
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    // Pool was shut down
+                    inFlight.decrementAndGet();
+                    return;
+                }
+            }
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+
+     // Wait for a worker's next parameter set, re-checking for shutdown while waiting
+    private DiffieHellman.DHParameters awaitNext() {
+        refill();
+        try {
+            while (true) {
+                DiffieHellman.DHParameters params = pool.poll(AWAIT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (params != null) {
+                    return params;
+                }
+                if (shutdown) {
+                    throw new IllegalStateException("DH parameter pool is shut down");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for DH parameters", e);
+        }
+    }
+
+
+    private static void writeBigInteger(DataOutputStream out, BigInteger value) throws IOException {
+        byte[] bytes = value.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static BigInteger readBigInteger(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_PARAM_BYTES) {
+            throw new IOException("Invalid DH parameter length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+}
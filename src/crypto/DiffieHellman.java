@@ -1,36 +1,78 @@
 package crypto;
 
+import utils.FixedBaseTable;
+import utils.Log;
 import utils.MathUtils;
+import utils.MontgomeryContext;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DiffieHellman {
 
+    public static final int MIN_PRIME_BITS = 2048;  // Smallest p accepted from a peer
+
+    // RFC 3526 group 14: 2048-bit MODP group with generator 2
+    public static final DHParameters MODP_2048 = new DHParameters(new BigInteger(
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD1" +
+            "29024E088A67CC74020BBEA63B139B22514A08798E3404DD" +
+            "EF9519B3CD3A431B302B0A6DF25F14374FE1356D6D51C245" +
+            "E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED" +
+            "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3D" +
+            "C2007CB8A163BF0598DA48361C55D39A69163FA8FD24CF5F" +
+            "83655D23DCA3AD961C62F356208552BB9ED529077096966D" +
+            "670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B" +
+            "E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9" +
+            "DE2BCBF6955817183995497CEA956AE515D2261898FA0510" +
+            "15728E5A8AACAA68FFFFFFFFFFFFFFFF", 16), BigInteger.valueOf(2));
+
     private final BigInteger p;  // Large prime
     private final BigInteger g;  // Generator
+    private final MontgomeryContext montgomery;  // Reused for both exponentiations under p; null if p is even
+    private final DHParameters params;           // Shared parameters (may hold a fixed-base table)
     private BigInteger privateKey;
     private BigInteger publicKey;
 
 
      // Initialize with public parameters p and g
     public DiffieHellman(BigInteger p, BigInteger g) {
-        this.p = p;
-        this.g = g;
+        this(new DHParameters(p, g));
+    }
+
+
+     // Initialize from a parameter set that may be shared across handshakes
+    public DiffieHellman(DHParameters params) {
+        this.p = params.p;
+        this.g = params.g;
+        this.params = params;
+        // Montgomery form needs an odd modulus; anything else goes through MathUtils.modPow
+        this.montgomery = p.signum() > 0 && p.testBit(0) && p.bitLength() > 1 ? new MontgomeryContext(p) : null;
     }
 
 
      // Generate public DH parameters (p and g) p is a prime, g is a generator
     public static DHParameters generateParameters(int bitLength) {
-        System.out.println("Generating DH parameters (" + bitLength + "-bit prime)...");
+        Log.debug("Generating DH parameters ({}-bit prime)...", bitLength);
+
+        DHParameters params = createParameters(bitLength);
+
+        Log.debug("DH parameters generated!");
+
+        return params;
+    }
+
 
+     // Quiet single-threaded variant used by background generation (DHParameterPool),
+     // so pool refills don't take every core away from handshakes
+    static DHParameters createParameters(int bitLength) {
         // Generating a prime p
-        BigInteger p = MathUtils.generatePrime(bitLength);
+        BigInteger p = MathUtils.generatePrime(bitLength, 1);
 
         // Using g = 2 (common generator choice)
         BigInteger g = BigInteger.valueOf(2);
 
-        System.out.println("DH parameters generated!");
-
         return new DHParameters(p, g);
     }
 
@@ -51,7 +93,19 @@ public class DiffieHellman {
             throw new IllegalStateException("Generate private key first!");
         }
 
-        this.publicKey = MathUtils.modPow(g, privateKey, p);
+        // Parameters that get reused pay for a fixed-base table once, then every
+        // later public key comes from the table instead of a generic exponentiation
+        if (montgomery == null) {
+            this.publicKey = MathUtils.modPow(g, privateKey, p);
+            return this.publicKey;
+        }
+
+        FixedBaseTable table = params.useFixedBaseTable();
+        if (table != null && MathUtils.getModPowEngine() == MathUtils.ModPowEngine.MONTGOMERY) {
+            this.publicKey = table.modPow(privateKey, montgomery);
+        } else {
+            this.publicKey = MathUtils.modPow(g, privateKey, montgomery);
+        }
         return this.publicKey;
     }
 
@@ -62,7 +116,18 @@ public class DiffieHellman {
             throw new IllegalStateException("Generate private key first!");
         }
 
-        return MathUtils.modPow(otherPublicKey, privateKey, p);
+        if (montgomery == null) {
+            return MathUtils.modPow(otherPublicKey, privateKey, p);
+        }
+        return MathUtils.modPow(otherPublicKey, privateKey, montgomery);
+    }
+
+
+     // Check a peer's public value before using it: it must lie in [2, p-2]
+     // 0, 1 and p-1 (or anything outside [0, p)) would let the peer choose the shared secret
+    public static boolean isValidPublicKey(BigInteger publicKey, BigInteger p) {
+        return publicKey.compareTo(BigInteger.ONE) > 0
+                && publicKey.compareTo(p.subtract(BigInteger.ONE)) < 0;
     }
 
     // Getters
@@ -83,11 +148,90 @@ public class DiffieHellman {
         public final BigInteger p;
         public final BigInteger g;
 
+        // Fixed-base table for g, built lazily once the parameters are reused
+        private final AtomicInteger publicKeyCount = new AtomicInteger();
+        private volatile FixedBaseTable fixedBaseTable;
+        private volatile byte[] encoded;
+        private final ReentrantLock tableLock = new ReentrantLock();  // Unlike a monitor, doesn't pin a virtual thread while it waits
+
         public DHParameters(BigInteger p, BigInteger g) {
             this.p = p;
             this.g = g;
         }
 
+
+         // Build the fixed-base table for g now (e.g. for long-lived parameters)
+        public FixedBaseTable precomputeFixedBase() {
+            FixedBaseTable table = fixedBaseTable;
+            if (table == null) {
+                tableLock.lock();
+                try {
+                    table = fixedBaseTable;
+                    if (table == null) {
+                        table = new FixedBaseTable(g, new MontgomeryContext(p));
+                        fixedBaseTable = table;
+                        Log.debug("DH fixed-base table built: {}", table);
+                    }
+                } finally {
+                    tableLock.unlock();
+                }
+            }
+            return table;
+        }
+
+
+         // Table to use for the next public key, or null while the parameters are one-shot
+         // Building costs about one exponentiation, so it only pays off from the second key on
+        FixedBaseTable useFixedBaseTable() {
+            FixedBaseTable table = fixedBaseTable;
+            if (table != null || publicKeyCount.incrementAndGet() < 2) {
+                return table;
+            }
+            return precomputeFixedBase();
+        }
+
+         // Check parameters received from a peer before using them
+         // p must be odd and at least MIN_PRIME_BITS long, and 1 < g < p-1. Primality is not
+         // tested here; the handshake trusts the server's p as it trusts its certificate.
+        public void validate() {
+            if (p.signum() <= 0 || !p.testBit(0)) {
+                throw new IllegalArgumentException("DH prime is not odd and positive");
+            }
+            if (p.bitLength() < MIN_PRIME_BITS) {
+                throw new IllegalArgumentException("DH prime too short: " + p.bitLength() + " bits");
+            }
+            if (g.compareTo(BigInteger.ONE) <= 0 || g.compareTo(p.subtract(BigInteger.ONE)) >= 0) {
+                throw new IllegalArgumentException("DH generator out of range");
+            }
+        }
+
+        public FixedBaseTable getFixedBaseTable() {
+            return fixedBaseTable;
+        }
+
+
+         // Length-prefixed wire form [len p][p][len g][g], encoded once and reused
+        public int encodedLength() {
+            return encoded().length;
+        }
+
+        public void writeEncoded(byte[] dst, int offset) {
+            byte[] bytes = encoded();
+            System.arraycopy(bytes, 0, dst, offset, bytes.length);
+        }
+
+        private byte[] encoded() {
+            byte[] bytes = encoded;
+            if (bytes == null) {
+                byte[] pBytes = p.toByteArray();
+                byte[] gBytes = g.toByteArray();
+                bytes = new byte[8 + pBytes.length + gBytes.length];
+                ByteBuffer.wrap(bytes).putInt(pBytes.length).put(pBytes).putInt(gBytes.length).put(gBytes);
+                encoded = bytes;  // Benign race: every thread computes the same bytes
+            }
+            return bytes;
+        }
+
         @Override
         public String toString() {
             return "DH Parameters:\n  p=" + p.toString(16).substring(0, 32) + "...\n  g=" + g;
@@ -0,0 +1,96 @@
+package crypto;
+
+import java.nio.ByteBuffer;
+
+ // HMAC-SHA256 (RFC 2104) on top of the in-project SHA-256
+ // compute() is a one-shot MAC for key derivation. For many messages under one key
+ // (record MACs), create an instance: the hash states after absorbing the inner and
+ // outer key pads are computed once and copied per message, so a MAC costs two
+ // compressions fewer and allocates nothing. Instances are not thread-safe.
+public class HMAC {
+
+    public static final int MAC_LENGTH = SHA256.DIGEST_LENGTH;
+
+    private static final byte IPAD = 0x36;
+    private static final byte OPAD = 0x5c;
+
+    private final SHA256 innerPad = new SHA256();  // State after H(K ^ ipad)
+    private final SHA256 outerPad = new SHA256();  // State after H(K ^ opad)
+    private final SHA256 sha = new SHA256();
+    private final byte[] innerHash = new byte[MAC_LENGTH];
+
+    public HMAC(byte[] key) {
+        if (key.length > SHA256.BLOCK_LENGTH) {
+            key = sha.digest(key);
+        }
+
+        byte[] pad = new byte[SHA256.BLOCK_LENGTH];
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ IPAD);
+        }
+        innerPad.update(pad);
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ OPAD);
+        }
+        outerPad.update(pad);
+        start();
+    }
+
+
+     // Begin a new message
+    public HMAC start() {
+        sha.copyFrom(innerPad);
+        return this;
+    }
+
+
+    public HMAC update(byte[] data, int offset, int length) {
+        sha.update(data, offset, length);
+        return this;
+    }
+
+
+    public HMAC update(ByteBuffer data) {
+        sha.update(data);
+        return this;
+    }
+
+
+     // Finish the MAC into out[offset..offset+32) and start the next message
+    public void doFinal(byte[] out, int offset) {
+        sha.doFinal(innerHash, 0);
+        sha.copyFrom(outerPad).update(innerHash).doFinal(out, offset);
+        start();
+    }
+
+     // HMAC(key, data) over the concatenation of all data parts
+    public static byte[] compute(byte[] key, byte[]... data) {
+        SHA256 sha = SHA256.current();
+
+        // Keys longer than a block are hashed first
+        if (key.length > SHA256.BLOCK_LENGTH) {
+            key = sha.digest(key);
+        }
+
+        byte[] pad = new byte[SHA256.BLOCK_LENGTH];
+        byte[] mac = new byte[MAC_LENGTH];
+
+        // Inner hash: H((K ^ ipad) || data)
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ IPAD);
+        }
+        sha.reset().update(pad);
+        for (byte[] part : data) {
+            sha.update(part);
+        }
+        sha.doFinal(mac, 0);
+
+        // Outer hash: H((K ^ opad) || inner)
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ OPAD);
+        }
+        sha.reset().update(pad).update(mac).doFinal(mac, 0);
+
+        return mac;
+    }
+}
@@ -1,19 +1,131 @@
 package crypto;
 
+import utils.ByteUtils;
+
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 
 public class KDF {
 
+    // Key derivation modes (both peers must use the same one)
+    public enum Mode {
+        LEGACY_ITERATED,    // 10,000-round hash chain as the master key, one labeled key per direction
+        HKDF                // HMAC extract-then-expand bound to both handshake randoms
+    }
+
+    private static final String LABEL_PREFIX = "tls-demo ";
+
+    private static volatile Mode mode = Mode.HKDF;
+
+    public static void setMode(Mode newMode) {
+        mode = newMode;
+    }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+
+    // Keys for one session: each side encrypts and MACs with its own write keys
+    public static class SessionKeys {
+        public final byte[] clientWriteKey;
+        public final byte[] serverWriteKey;
+        public final byte[] clientWriteIv;
+        public final byte[] serverWriteIv;
+        public final byte[] clientMacKey;
+        public final byte[] serverMacKey;
+        public final byte[] resumptionSecret;   // null in legacy mode
+
+        public SessionKeys(byte[] clientWriteKey, byte[] serverWriteKey,
+                           byte[] clientWriteIv, byte[] serverWriteIv,
+                           byte[] clientMacKey, byte[] serverMacKey,
+                           byte[] resumptionSecret) {
+            this.clientWriteKey = clientWriteKey;
+            this.serverWriteKey = serverWriteKey;
+            this.clientWriteIv = clientWriteIv;
+            this.serverWriteIv = serverWriteIv;
+            this.clientMacKey = clientMacKey;
+            this.serverMacKey = serverMacKey;
+            this.resumptionSecret = resumptionSecret;
+        }
+    }
+
+
+     // Derive all session keys with the selected mode
+    public static SessionKeys deriveSessionKeys(BigInteger sharedSecret, byte[] clientRandom, byte[] serverRandom) {
+        if (mode == Mode.LEGACY_ITERATED) {
+            // Iterated master key, then the same labels as HKDF mode (16-byte keys as before)
+            // A key, IV or MAC key shared by both directions would reuse the keystream
+            // and let a record be reflected back to its sender
+            byte[] masterKey = deriveKey(sharedSecret, 10000, 32);
+            return new SessionKeys(
+                    expandLabel(masterKey, "client write key", 16),
+                    expandLabel(masterKey, "server write key", 16),
+                    expandLabel(masterKey, "client write iv", 12),
+                    expandLabel(masterKey, "server write iv", 12),
+                    expandLabel(masterKey, "client mac key", 16),
+                    expandLabel(masterKey, "server mac key", 16),
+                    null);
+        }
+
+        // One cheap extract step, then every key is a labeled expand
+        byte[] prk = extract(ByteUtils.concat(clientRandom, serverRandom), sharedSecret.toByteArray());
+        return new SessionKeys(
+                expandLabel(prk, "client write key", 32),
+                expandLabel(prk, "server write key", 32),
+                expandLabel(prk, "client write iv", 12),
+                expandLabel(prk, "server write iv", 12),
+                expandLabel(prk, "client mac key", 32),
+                expandLabel(prk, "server mac key", 32),
+                expandLabel(prk, "resumption", 32));
+    }
+
+
+     // HKDF-Extract (RFC 5869): PRK = HMAC(salt, input keying material)
+    public static byte[] extract(byte[] salt, byte[] ikm) {
+        return HMAC.compute(salt, ikm);
+    }
+
+
+     // HKDF-Expand (RFC 5869): T(i) = HMAC(PRK, T(i-1) || info || i), output truncated to length
+    public static byte[] expand(byte[] prk, byte[] info, int length) {
+        if (length > 255 * HMAC.MAC_LENGTH) {
+            throw new IllegalArgumentException("HKDF output too long");
+        }
+
+        byte[] output = new byte[length];
+        byte[] previous = new byte[0];
+        byte[] counter = new byte[1];
+
+        for (int pos = 0; pos < length; pos += HMAC.MAC_LENGTH) {
+            counter[0]++;
+            previous = HMAC.compute(prk, previous, info, counter);
+            System.arraycopy(previous, 0, output, pos, Math.min(HMAC.MAC_LENGTH, length - pos));
+        }
+
+        return output;
+    }
+
+
+     // Expand with a human-readable label as the info string
+    public static byte[] expandLabel(byte[] prk, String label, int length) {
+        return expand(prk, (LABEL_PREFIX + label).getBytes(StandardCharsets.US_ASCII), length);
+    }
+
 
      //Derive encryption key from shared secret
     public static byte[] deriveKey(BigInteger sharedSecret, int iterations, int keyLength) {
         // Convert shared secret to bytes
         byte[] secret = sharedSecret.toByteArray();
 
-        // Iteratively hash
+        // Iteratively hash: the first round absorbs the secret, every later round
+        // re-hashes the 32-byte digest in place through the single-block fast path
         byte[] key = secret;
-        for (int i = 0; i < iterations; i++) {
-            key = RSA.simpleHash(key);
+        if (iterations > 0) {
+            SHA256 sha = SHA256.current();
+            key = new byte[SHA256.DIGEST_LENGTH];
+            sha.reset().update(secret).doFinal(key, 0);
+            sha.hash32InPlace(key, iterations - 1);
         }
 
         // Truncate or extend to desired key length
@@ -24,6 +136,7 @@ public class KDF {
 
 
      //Derive multiple keys from shared secret and Returns: [encryption key, MAC key]
+     //Legacy iterated mode, kept for comparison with the HKDF key schedule
     public static byte[][] deriveSessionKeys(BigInteger sharedSecret) {
         // Derive 32-byte master key
         byte[] masterKey = deriveKey(sharedSecret, 10000, 32);
@@ -1,10 +1,11 @@
 package crypto;
 
+import utils.Log;
 import utils.MathUtils;
 
 import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class RSA {
 
@@ -27,9 +28,32 @@ public class RSA {
         public final BigInteger d;
         public final BigInteger n;
 
+        // CRT components (all null for a plain (d, n) key)
+        public final BigInteger e;     // Public exponent, used by the fault check
+        public final BigInteger p;
+        public final BigInteger q;
+        public final BigInteger dP;    // d mod (p-1)
+        public final BigInteger dQ;    // d mod (q-1)
+        public final BigInteger qInv;  // q^-1 mod p
+
         public PrivateKey(BigInteger d, BigInteger n) {
+            this(d, n, null, null, null, null, null, null);
+        }
+
+        public PrivateKey(BigInteger d, BigInteger n, BigInteger e, BigInteger p, BigInteger q,
+                          BigInteger dP, BigInteger dQ, BigInteger qInv) {
             this.d = d;
             this.n = n;
+            this.e = e;
+            this.p = p;
+            this.q = q;
+            this.dP = dP;
+            this.dQ = dQ;
+            this.qInv = qInv;
+        }
+
+        public boolean hasCrt() {
+            return p != null;
         }
     }
 
@@ -47,11 +71,13 @@ public class RSA {
      // Generating RSA key pair
      // By Using 512-bit keys for demonstration (faster than 2048-bit)
     public static KeyPair generateKeyPair(int bitLength) {
-        System.out.println("Generating RSA keys (" + bitLength + "-bit)...");
+        Log.debug("Generating RSA keys ({}-bit)...", bitLength);
 
-        // Step 1: Generate two distinct primes p and q
+        // Step 1: Generate two distinct primes p and q (in parallel)
+        ForkJoinTask<BigInteger> qSearch = ForkJoinPool.commonPool().submit(
+                () -> MathUtils.generatePrime(bitLength / 2));
         BigInteger p = MathUtils.generatePrime(bitLength / 2);
-        BigInteger q = MathUtils.generatePrime(bitLength / 2);
+        BigInteger q = qSearch.join();
 
         // Ensure p != q
         while (p.equals(q)) {
@@ -75,27 +101,70 @@ public class RSA {
         // Step 5: Compute d = e^(-1) mod φ(n)
         BigInteger d = MathUtils.modInverse(e, phi);
 
-        System.out.println("RSA keys generated...");
+        // Step 6: CRT components for fast private-key operations
+        BigInteger dP = d.mod(p.subtract(BigInteger.ONE));
+        BigInteger dQ = d.mod(q.subtract(BigInteger.ONE));
+        BigInteger qInv = MathUtils.modInverse(q, p);
+
+        Log.debug("RSA keys generated...");
 
         PublicKey publicKey = new PublicKey(e, n);
-        PrivateKey privateKey = new PrivateKey(d, n);
+        PrivateKey privateKey = new PrivateKey(d, n, e, p, q, dP, dQ, qInv);
 
         return new KeyPair(publicKey, privateKey);
     }
 
+
+     // Public-key operation: m^e mod n (encrypt / verify)
+    public static BigInteger publicOperation(BigInteger m, PublicKey key) {
+        return MathUtils.modPow(m, key.e, key.n);
+    }
+
+
+     // Private-key operation: c^d mod n (decrypt / sign), with the CRT fault check on
+    public static BigInteger privateOperation(BigInteger c, PrivateKey key) {
+        return privateOperation(c, key, true);
+    }
+
+
+     // Private-key operation: c^d mod n
+     // CRT keys do two half-size exponentiations and recombine them with Garner's formula,
+     // roughly 3-4x faster than one full-size exponentiation with d.
+     // faultCheck re-encrypts the result so a faulty half can't leak p or q through the output.
+    public static BigInteger privateOperation(BigInteger c, PrivateKey key, boolean faultCheck) {
+        if (!key.hasCrt()) {
+            return MathUtils.modPow(c, key.d, key.n);
+        }
+
+        BigInteger m1 = MathUtils.modPow(c.mod(key.p), key.dP, key.p);
+        BigInteger m2 = MathUtils.modPow(c.mod(key.q), key.dQ, key.q);
+
+        // Garner: m = m2 + q * (qInv * (m1 - m2) mod p)
+        BigInteger h = key.qInv.multiply(m1.subtract(m2)).mod(key.p);
+        BigInteger m = m2.add(h.multiply(key.q));
+
+        if (faultCheck && !MathUtils.modPow(m, key.e, key.n).equals(c.mod(key.n))) {
+            throw new IllegalStateException("RSA CRT fault detected");
+        }
+
+        return m;
+    }
+
+
+     // Sign the SHA-256 hash of data with the private key
+    public static BigInteger sign(byte[] data, PrivateKey key) {
+        return privateOperation(new BigInteger(1, simpleHash(data)), key);
+    }
+
+
+     // Check a signature produced by sign()
+    public static boolean verify(byte[] data, BigInteger signature, PublicKey key) {
+        return publicOperation(signature, key).equals(new BigInteger(1, simpleHash(data)).mod(key.n));
+    }
+
      // Simple hash function using SHA-256
-    // (I used MessageDigest since it's just hashing, not crypto operations)
+     // Runs on the calling thread's reusable in-project SHA-256 context
     public static byte[] simpleHash(byte[] data) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(data);
-        } catch (NoSuchAlgorithmException e) {
-            // Fallback to simple XOR-based hash if SHA-256 not available
-            byte[] hash = new byte[32];
-            for (int i = 0; i < data.length; i++) {
-                hash[i % 32] ^= data[i];
-            }
-            return hash;
-        }
+        return SHA256.current().digest(data);
     }
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package crypto;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.zip.CRC32;
+
+ // Binary on-disk store for the server's RSA key pair
+ // Format: [magic][version][body length][CRC32 of body] followed by the body,
+ // eight length-prefixed big-endian integers: n, e, d, p, q, dP, dQ, qInv.
+ // Loading memory-maps the file and rejects anything that fails the checksum
+ // or a quick encrypt/decrypt consistency check, so callers can fall back to keygen.
+public class RSAKeyStore {
+
+    private static final int MAGIC = 0x52534B31;     // "RSK1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int MAX_FIELD_BYTES = 1024;  // Up to 8192-bit values
+
+     // Write the key pair, replacing any existing store atomically
+    public static void save(RSA.KeyPair keys, Path file) throws IOException {
+        RSA.PrivateKey priv = keys.privateKey;
+        if (!priv.hasCrt()) {
+            throw new IllegalArgumentException("Key store needs a CRT private key");
+        }
+
+        BigInteger[] fields = { priv.n, priv.e, priv.d, priv.p, priv.q, priv.dP, priv.dQ, priv.qInv };
+        byte[][] encoded = new byte[fields.length][];
+        int bodyLength = 0;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i].toByteArray();
+            bodyLength += 4 + encoded[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        buffer.position(HEADER_BYTES);
+        for (byte[] field : encoded) {
+            buffer.putInt(field.length).put(field);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, bodyLength);
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, bodyLength).putInt(12, (int) crc.getValue());
+        buffer.rewind();
+
+        // A leftover temp file would keep its old permissions, so always create a fresh one
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try (FileChannel channel = FileChannel.open(temp,
+                EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ownerOnly(temp))) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+     // Load a key pair, or return null if the file is missing or not a valid store
+    public static RSA.KeyPair load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > HEADER_BYTES + 8L * (4 + MAX_FIELD_BYTES)) {
+                return null;
+            }
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                return null;
+            }
+            int bodyLength = map.getInt();
+            int expectedCrc = map.getInt();
+            if (bodyLength != size - HEADER_BYTES) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(map.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                return null;
+            }
+
+            BigInteger n = readField(map);
+            BigInteger e = readField(map);
+            BigInteger d = readField(map);
+            BigInteger p = readField(map);
+            BigInteger q = readField(map);
+            BigInteger dP = readField(map);
+            BigInteger dQ = readField(map);
+            BigInteger qInv = readField(map);
+            if (n == null || e == null || d == null || p == null || q == null ||
+                    dP == null || dQ == null || qInv == null) {
+                return null;
+            }
+
+            RSA.KeyPair keys = new RSA.KeyPair(
+                    new RSA.PublicKey(e, n),
+                    new RSA.PrivateKey(d, n, e, p, q, dP, dQ, qInv));
+            return isConsistent(keys) ? keys : null;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+
+    private static BigInteger readField(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length <= 0 || length > MAX_FIELD_BYTES || length > buffer.remaining()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new BigInteger(bytes);
+    }
+
+
+     // Cheap sanity check: n = p*q and a private operation inverts a public one
+    private static boolean isConsistent(RSA.KeyPair keys) {
+        RSA.PrivateKey priv = keys.privateKey;
+        if (priv.n.signum() <= 0 || !priv.p.multiply(priv.q).equals(priv.n)) {
+            return false;
+        }
+
+        BigInteger probe = BigInteger.valueOf(0x5EED);
+        try {
+            BigInteger c = RSA.publicOperation(probe, keys.publicKey);
+            return RSA.privateOperation(c, priv, true).equals(probe);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+
+     // Owner-only permissions, set as the file is created so the private key is never readable by others
+     // Non-POSIX file systems get no attribute and keep their default permissions
+    private static FileAttribute<?>[] ownerOnly(Path file) {
+        if (!file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[] {
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) };
+    }
+}
@@ -0,0 +1,251 @@
+package crypto;
+
+import java.nio.ByteBuffer;
+
+ // In-project SHA-256 (FIPS 180-4) with reusable state
+ // A context owns its message schedule and block buffer, so hashing allocates
+ // nothing. hash32() is a fast path for the fixed case of hashing exactly 32
+ // bytes: the padded message is a single block whose last 8 words are constant.
+ // Contexts are not thread-safe; current() hands out one per thread.
+public class SHA256 {
+
+    public static final int DIGEST_LENGTH = 32;
+    public static final int BLOCK_LENGTH = 64;
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final ThreadLocal<SHA256> LOCAL = ThreadLocal.withInitial(SHA256::new);
+
+    private final int[] state = new int[8];
+    private final int[] w = new int[64];
+    private final byte[] block = new byte[BLOCK_LENGTH];
+    private int blockLength;     // Bytes buffered in block
+    private long totalLength;    // Bytes hashed so far
+
+    public SHA256() {
+        reset();
+    }
+
+
+     // The calling thread's reusable context
+    public static SHA256 current() {
+        return LOCAL.get();
+    }
+
+
+    public SHA256 reset() {
+        System.arraycopy(IV, 0, state, 0, 8);
+        blockLength = 0;
+        totalLength = 0;
+        return this;
+    }
+
+
+     // Continue from another context's state, e.g. a precomputed HMAC pad
+    public SHA256 copyFrom(SHA256 other) {
+        System.arraycopy(other.state, 0, state, 0, 8);
+        System.arraycopy(other.block, 0, block, 0, other.blockLength);
+        blockLength = other.blockLength;
+        totalLength = other.totalLength;
+        return this;
+    }
+
+
+    public SHA256 update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+
+    public SHA256 update(byte[] data, int offset, int length) {
+        totalLength += length;
+
+        // Top up a partially filled block first
+        if (blockLength > 0) {
+            int n = Math.min(length, BLOCK_LENGTH - blockLength);
+            System.arraycopy(data, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+            if (blockLength < BLOCK_LENGTH) {
+                return this;
+            }
+            compress(block, 0);
+            blockLength = 0;
+        }
+
+        // Full blocks straight from the input
+        while (length >= BLOCK_LENGTH) {
+            compress(data, offset);
+            offset += BLOCK_LENGTH;
+            length -= BLOCK_LENGTH;
+        }
+
+        System.arraycopy(data, offset, block, 0, length);
+        blockLength = length;
+        return this;
+    }
+
+
+     // Hash data.remaining() bytes, advancing data; direct buffers go through the block buffer
+    public SHA256 update(ByteBuffer data) {
+        if (data.hasArray()) {
+            int length = data.remaining();
+            update(data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + length);
+            return this;
+        }
+
+        totalLength += data.remaining();
+        while (data.hasRemaining()) {
+            int n = Math.min(data.remaining(), BLOCK_LENGTH - blockLength);
+            data.get(block, blockLength, n);
+            blockLength += n;
+            if (blockLength == BLOCK_LENGTH) {
+                compress(block, 0);
+                blockLength = 0;
+            }
+        }
+        return this;
+    }
+
+
+     // Finish the hash into out[offset..offset+32) and reset for the next message
+    public void doFinal(byte[] out, int offset) {
+        long bitLength = totalLength << 3;
+
+        block[blockLength++] = (byte) 0x80;
+        if (blockLength > BLOCK_LENGTH - 8) {
+            while (blockLength < BLOCK_LENGTH) {
+                block[blockLength++] = 0;
+            }
+            compress(block, 0);
+            blockLength = 0;
+        }
+        while (blockLength < BLOCK_LENGTH - 8) {
+            block[blockLength++] = 0;
+        }
+        for (int i = 7; i >= 0; i--) {
+            block[blockLength++] = (byte) (bitLength >>> (8 * i));
+        }
+        compress(block, 0);
+
+        writeState(out, offset);
+        reset();
+    }
+
+
+     // One-shot hash returning a new 32-byte array
+    public byte[] digest(byte[] data) {
+        byte[] out = new byte[DIGEST_LENGTH];
+        reset().update(data).doFinal(out, 0);
+        return out;
+    }
+
+
+     // Hash exactly 32 bytes from in[inOffset..] into out[outOffset..]; in and out may overlap
+     // Single-block fast path: the padding and length words are constants
+    public void hash32(byte[] in, int inOffset, byte[] out, int outOffset) {
+        for (int i = 0; i < 8; i++) {
+            w[i] = readInt(in, inOffset + 4 * i);
+        }
+        w[8] = 0x80000000;
+        for (int i = 9; i < 15; i++) {
+            w[i] = 0;
+        }
+        w[15] = 256;  // Message length in bits
+
+        System.arraycopy(IV, 0, state, 0, 8);
+        compressSchedule();
+        writeState(out, outOffset);
+        reset();
+    }
+
+
+     // Chain-hash a 32-byte buffer in place `rounds` times: buf = H(H(...H(buf)))
+    public void hash32InPlace(byte[] buf, int rounds) {
+        for (int r = 0; r < rounds; r++) {
+            hash32(buf, 0, buf, 0);
+        }
+    }
+
+
+    private void compress(byte[] data, int offset) {
+        for (int i = 0; i < 16; i++) {
+            w[i] = readInt(data, offset + 4 * i);
+        }
+        compressSchedule();
+    }
+
+
+     // SHA-256 compression over w[0..15], extending the schedule in place
+    private void compressSchedule() {
+        int[] w = this.w;
+        for (int i = 16; i < 64; i++) {
+            int x = w[i - 15];
+            int y = w[i - 2];
+            int s0 = Integer.rotateRight(x, 7) ^ Integer.rotateRight(x, 18) ^ (x >>> 3);
+            int s1 = Integer.rotateRight(y, 17) ^ Integer.rotateRight(y, 19) ^ (y >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = state[0], b = state[1], c = state[2], d = state[3];
+        int e = state[4], f = state[5], g = state[6], h = state[7];
+
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = h + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+
+    private void writeState(byte[] out, int offset) {
+        for (int i = 0; i < 8; i++) {
+            int v = state[i];
+            out[offset + 4 * i] = (byte) (v >>> 24);
+            out[offset + 4 * i + 1] = (byte) (v >>> 16);
+            out[offset + 4 * i + 2] = (byte) (v >>> 8);
+            out[offset + 4 * i + 3] = (byte) v;
+        }
+    }
+
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) |
+                ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+}
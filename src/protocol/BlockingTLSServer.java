@@ -0,0 +1,219 @@
+package protocol;
+
+import utils.Entropy;
+import utils.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+ // Blocking server with one thread per connection
+ // Each accepted connection runs the same sequential handshake as Main.runServer on its
+ // own thread through a SocketChannelTransport. It then answers application data
+ // until the peer closes. The logic stays a straight line of blocking calls. With
+ // VIRTUAL threads (JDK 21+) a mostly idle session costs little more than its buffers.
+ // The virtual-thread executor is looked up reflectively, so on older JDKs VIRTUAL
+ // falls back to platform threads; isVirtual() tells which one is in use.
+ // Nothing a connection thread blocks on holds a monitor: the DH pool and fixed-base
+ // tables use ReentrantLock, virtual threads share Entropy's striped sources behind
+ // ReentrantLock (so no per-connection DRBG is seeded), and Log writes from its own thread.
+public class BlockingTLSServer implements Closeable {
+
+    public enum Threads { VIRTUAL, PLATFORM }
+
+    private static final long ACCEPT_RETRY_MILLIS = 50;  // Pause after a failed accept
+
+    private final ServerContext context;  // Every connection gets a session on it
+    private final UnaryOperator<byte[]> application;
+    private final ServerSocketChannel listener;
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+    private Thread acceptor;
+
+    public BlockingTLSServer(ServerContext context, InetSocketAddress address, Threads threads,
+                             UnaryOperator<byte[]> application) throws IOException {
+        this.context = context;
+        this.application = application;
+
+        ExecutorService virtualExecutor = threads == Threads.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (threads == Threads.VIRTUAL && virtualExecutor == null) {
+            Log.info("Virtual threads unavailable on Java {}, using platform threads",
+                    System.getProperty("java.specification.version"));
+        }
+        this.virtual = virtualExecutor != null;
+        this.executor = virtual ? virtualExecutor : newPlatformThreadExecutor();
+
+        this.listener = ServerSocketChannel.open();
+        listener.bind(address, 1024);
+    }
+
+
+     // Start accepting connections
+    public void start() {
+        acceptor = new Thread(this::acceptLoop, "tls-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) listener.getLocalAddress();
+    }
+
+    public long getCompletedHandshakes() {
+        return handshakes.get();
+    }
+
+    public int getOpenConnections() {
+        return connections.get();
+    }
+
+
+     // Stop accepting and interrupt every connection thread (which closes its channel)
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        executor.shutdownNow();
+        if (acceptor != null) {
+            try {
+                acceptor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+     // Accept until the listener is closed; any other accept failure (e.g. out of file
+     // descriptors) is logged and retried after a short pause so the server keeps serving
+    private void acceptLoop() {
+        while (true) {
+            SocketChannelTransport transport;
+            try {
+                transport = SocketChannelTransport.accept(listener);
+            } catch (ClosedChannelException e) {
+                return;  // Server closed
+            } catch (IOException e) {
+                Log.error("Accept failed: {}", e.getMessage());
+                try {
+                    Thread.sleep(ACCEPT_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                executor.execute(() -> serve(transport));
+            } catch (RejectedExecutionException e) {
+                try {
+                    transport.close();
+                } catch (IOException closeFailure) {
+                    // Already gone
+                }
+                return;
+            }
+        }
+    }
+
+
+     // One connection, start to finish, in the order Main.runServer uses
+    private void serve(Transport transport) {
+        connections.incrementAndGet();
+        TLSServer session = context.newSession();
+
+        try (transport) {
+            // Phase 2 + 3: Client Hello -> Server Hello + Certificate
+            TLSMessage[] serverMessages = session.handleClientHello(expect(transport));
+            if (serverMessages == null) {
+                return;
+            }
+            transport.send(serverMessages[0]);
+            transport.send(serverMessages[1]);
+
+            // Phase 4 + 5: Client Key Exchange -> Server Finished
+            TLSMessage serverFinished = session.handleClientKeyExchange(expect(transport));
+            if (serverFinished == null) {
+                return;
+            }
+            transport.send(serverFinished);
+
+            // Phase 6: Client Finished
+            if (!session.handleClientFinished(expect(transport))) {
+                return;
+            }
+            handshakes.incrementAndGet();
+
+            // Records need no randomness, so don't keep a DRBG per idle session
+            Entropy.release();
+
+            // Application data until the peer closes
+            TLSMessage message;
+            while ((message = transport.receive()) != null) {
+                byte[] response = application.apply(session.receiveRecord(message));
+                if (response != null) {
+                    List<TLSMessage> records = new ArrayList<>();
+                    session.sendData(response, records::add);
+                    for (TLSMessage record : records) {
+                        transport.send(record);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.debug("Connection closed: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            Log.error("Connection failed: {}", e.getMessage());
+        } finally {
+            connections.decrementAndGet();
+        }
+    }
+
+
+     // Next handshake message; the peer may not close in the middle of the handshake
+    private static TLSMessage expect(Transport transport) throws IOException {
+        TLSMessage message = transport.receive();
+        if (message == null) {
+            throw new EOFException("Peer closed during handshake");
+        }
+        return message;
+    }
+
+
+     // Executors.newVirtualThreadPerTaskExecutor() where the JDK has it, otherwise null
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+
+    private static ExecutorService newPlatformThreadExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "tls-connection-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
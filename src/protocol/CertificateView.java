@@ -0,0 +1,112 @@
+package protocol;
+
+import crypto.DiffieHellman;
+import crypto.RSA;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+ // Read-only view over a SERVER_CERTIFICATE payload
+ // Layout: five length-prefixed big-endian integers [RSA e][RSA n][DH p][DH g][server DH public].
+ // wrap() only walks the length prefixes, checking each against the bytes that are
+ // actually there, and records the offsets; nothing is copied or decoded until a
+ // field is first asked for. The RSA key in particular is never decoded unless used.
+public class CertificateView {
+
+    public static final int FIELD_COUNT = 5;
+    public static final int MAX_FIELD_LENGTH = 2048;  // Up to 16384-bit values
+
+    private static final int RSA_E = 0;
+    private static final int RSA_N = 1;
+    private static final int DH_P = 2;
+    private static final int DH_G = 3;
+    private static final int SERVER_DH_PUBLIC = 4;
+
+    private final ByteBuffer data;
+    private final int[] offsets = new int[FIELD_COUNT];
+    private final int[] lengths = new int[FIELD_COUNT];
+
+    // Decoded on first access
+    private RSA.PublicKey publicKey;
+    private DiffieHellman.DHParameters dhParameters;
+    private BigInteger serverDHPublic;
+
+    private CertificateView(ByteBuffer data) {
+        this.data = data;
+    }
+
+
+    public static CertificateView wrap(byte[] payload) {
+        if (payload == null) {
+            throw new IllegalArgumentException("Malformed certificate: no payload");
+        }
+        return wrap(ByteBuffer.wrap(payload));
+    }
+
+
+     // View the certificate in payload[position, limit); throws IllegalArgumentException if malformed
+    public static CertificateView wrap(ByteBuffer payload) {
+        CertificateView view = new CertificateView(payload.slice());
+        ByteBuffer data = view.data;
+
+        int offset = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (data.limit() - offset < 4) {
+                throw new IllegalArgumentException("Malformed certificate: truncated at field " + i);
+            }
+            int length = data.getInt(offset);
+            offset += 4;
+            if (length <= 0 || length > MAX_FIELD_LENGTH || length > data.limit() - offset) {
+                throw new IllegalArgumentException("Malformed certificate: bad length " + length +
+                        " for field " + i);
+            }
+            view.offsets[i] = offset;
+            view.lengths[i] = length;
+            offset += length;
+        }
+
+        if (offset != data.limit()) {
+            throw new IllegalArgumentException("Malformed certificate: " + (data.limit() - offset) +
+                    " trailing bytes");
+        }
+        return view;
+    }
+
+
+    public RSA.PublicKey publicKey() {
+        if (publicKey == null) {
+            publicKey = new RSA.PublicKey(field(RSA_E), field(RSA_N));
+        }
+        return publicKey;
+    }
+
+
+    public DiffieHellman.DHParameters dhParameters() {
+        if (dhParameters == null) {
+            dhParameters = new DiffieHellman.DHParameters(field(DH_P), field(DH_G));
+        }
+        return dhParameters;
+    }
+
+
+    public BigInteger serverDHPublic() {
+        if (serverDHPublic == null) {
+            serverDHPublic = field(SERVER_DH_PUBLIC);
+        }
+        return serverDHPublic;
+    }
+
+
+     // Decode a field, reading heap-backed payloads in place
+    private BigInteger field(int index) {
+        int offset = offsets[index];
+        int length = lengths[index];
+        if (data.hasArray()) {
+            return new BigInteger(data.array(), data.arrayOffset() + offset, length);
+        }
+
+        byte[] bytes = new byte[length];
+        data.duplicate().position(offset).get(bytes);
+        return new BigInteger(bytes);
+    }
+}
@@ -3,6 +3,8 @@ package protocol;
 import java.math.BigInteger;
 import crypto.RSA;
 import crypto.DiffieHellman;
+import crypto.KDF;
+import utils.Log;
 
  // Handshake State Machine
  // Tracks the state of TLS handshake for both client and server
@@ -24,15 +26,14 @@ public class HandshakeState {
 
     // Cryptographic materials
     private RSA.KeyPair serverKeyPair;   // Server's RSA keys
-    private RSA.PublicKey serverPublicKey;  // For client
+    private CertificateView serverCertificate;  // For client: fields decoded on demand
 
     private DiffieHellman.DHParameters dhParameters; // DH parameters
     private BigInteger clientDHPublic;              // Client's DH public key
     private BigInteger serverDHPublic;              // Server's DH public key
     private BigInteger sharedSecret;                // Computed shared secret
 
-    private byte[] sessionEncryptionKey;            // Derived encryption key
-    private byte[] sessionMacKey;                   // Derived MAC key
+    private KDF.SessionKeys sessionKeys;            // Derived write keys, IVs and MAC keys
 
     // Random nonces for replay protection
     private byte[] clientRandom;
@@ -47,10 +48,14 @@ public class HandshakeState {
 
     // State transitions
     public void transitionTo(State newState) {
-        System.out.println("  State: " + currentState + " → " + newState);
+        Log.debug("  State: {} → {}", currentState, newState);
         this.currentState = newState;
     }
 
+    public State getState() {
+        return currentState;
+    }
+
     public void setServerKeyPair(RSA.KeyPair keyPair) {
         this.serverKeyPair = keyPair;
     }
@@ -59,8 +64,16 @@ public class HandshakeState {
         return serverKeyPair;
     }
 
-    public void setServerPublicKey(RSA.PublicKey publicKey) {
-        this.serverPublicKey = publicKey;
+    public void setServerCertificate(CertificateView certificate) {
+        this.serverCertificate = certificate;
+    }
+
+    public CertificateView getServerCertificate() {
+        return serverCertificate;
+    }
+
+    public RSA.PublicKey getServerPublicKey() {
+        return serverCertificate != null ? serverCertificate.publicKey() : null;
     }
 
     public void setDhParameters(DiffieHellman.DHParameters params) {
@@ -68,6 +81,9 @@ public class HandshakeState {
     }
 
     public DiffieHellman.DHParameters getDhParameters() {
+        if (dhParameters == null && serverCertificate != null) {
+            dhParameters = serverCertificate.dhParameters();
+        }
         return dhParameters;
     }
 
@@ -80,6 +96,9 @@ public class HandshakeState {
     }
 
     public BigInteger getServerDHPublic() {
+        if (serverDHPublic == null && serverCertificate != null) {
+            serverDHPublic = serverCertificate.serverDHPublic();
+        }
         return serverDHPublic;
     }
 
@@ -87,13 +106,13 @@ public class HandshakeState {
         this.sharedSecret = secret;
     }
 
-    public void setSessionKeys(byte[] encKey, byte[] macKey) {
-        this.sessionEncryptionKey = encKey;
-        this.sessionMacKey = macKey;
+    // Derive the session keys from the shared secret, bound to both handshake randoms
+    public void deriveSessionKeys() {
+        this.sessionKeys = KDF.deriveSessionKeys(sharedSecret, clientRandom, serverRandom);
     }
 
-    public byte[] getSessionEncryptionKey() {
-        return sessionEncryptionKey;
+    public KDF.SessionKeys getSessionKeys() {
+        return sessionKeys;
     }
 
     public void setClientRandom(byte[] random) {
@@ -130,7 +149,7 @@ public class HandshakeState {
                 "state=" + currentState +
                 ", sessionId='" + sessionId + '\'' +
                 ", hasSharedSecret=" + (sharedSecret != null) +
-                ", hasSessionKeys=" + (sessionEncryptionKey != null) +
+                ", hasSessionKeys=" + (sessionKeys != null) +
                 '}';
     }
 }
\ No newline at end of file
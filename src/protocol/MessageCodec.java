@@ -0,0 +1,184 @@
+package protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+ // Compact binary wire format for TLSMessage
+ // [type][flags] then, for each field present in flags, a varint length and its bytes:
+ // payload, text (UTF-8), session ID (UTF-8). Type 0 encodes a null message, which
+ // the chat loop uses as its close signal. Decoding checks every length against
+ // the bytes actually available, so a malformed frame cannot force a large allocation.
+public class MessageCodec {
+
+    public static final int MAX_FIELD_LENGTH = 1 << 20;
+
+    private static final int CLOSE = 0;
+    private static final int HAS_PAYLOAD = 1;
+    private static final int HAS_TEXT = 2;
+    private static final int HAS_SESSION_ID = 4;
+
+    private static final TLSMessage.MessageType[] TYPES = TLSMessage.MessageType.values();
+
+     // Encode a message (or null for close) into a new array
+    public static byte[] encode(TLSMessage message) {
+        byte[] text = utf8(message == null ? null : message.getTextData());
+        byte[] sessionId = utf8(message == null ? null : message.getSessionId());
+        ByteBuffer out = ByteBuffer.allocate(encodedLength(message, text, sessionId));
+        encode(message, text, sessionId, out);
+        return out.array();
+    }
+
+
+     // Encode a message (or null for close) at dst's position
+    public static void encode(TLSMessage message, ByteBuffer dst) {
+        byte[] text = utf8(message == null ? null : message.getTextData());
+        byte[] sessionId = utf8(message == null ? null : message.getSessionId());
+        encode(message, text, sessionId, dst);
+    }
+
+
+     // Bytes encode() will write for this message
+    public static int encodedLength(TLSMessage message) {
+        return encodedLength(message,
+                utf8(message == null ? null : message.getTextData()),
+                utf8(message == null ? null : message.getSessionId()));
+    }
+
+
+    public static TLSMessage decode(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        TLSMessage message = decode(in);
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing bytes after message");
+        }
+        return message;
+    }
+
+
+     // Decode one message from src's position; returns null for the close signal
+    public static TLSMessage decode(ByteBuffer src) {
+        try {
+            int type = src.get() & 0xFF;
+            if (type == CLOSE) {
+                return null;
+            }
+            if (type > TYPES.length) {
+                throw new IllegalArgumentException("Unknown message type: " + type);
+            }
+
+            int flags = src.get() & 0xFF;
+            if ((flags & ~(HAS_PAYLOAD | HAS_TEXT | HAS_SESSION_ID)) != 0) {
+                throw new IllegalArgumentException("Unknown message flags: " + flags);
+            }
+
+            byte[] payload = (flags & HAS_PAYLOAD) != 0 ? readField(src) : null;
+            String text = (flags & HAS_TEXT) != 0 ? new String(readField(src), StandardCharsets.UTF_8) : null;
+            String sessionId = (flags & HAS_SESSION_ID) != 0
+                    ? new String(readField(src), StandardCharsets.UTF_8) : null;
+
+            return new TLSMessage(TYPES[type - 1], payload, text, sessionId);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated message");
+        }
+    }
+
+
+    private static void encode(TLSMessage message, byte[] text, byte[] sessionId, ByteBuffer dst) {
+        if (message == null) {
+            dst.put((byte) CLOSE);
+            return;
+        }
+
+        byte[] payload = message.getPayload();
+        int flags = (payload != null ? HAS_PAYLOAD : 0) |
+                (text != null ? HAS_TEXT : 0) |
+                (sessionId != null ? HAS_SESSION_ID : 0);
+
+        dst.put((byte) (message.getType().ordinal() + 1));
+        dst.put((byte) flags);
+        writeField(dst, payload);
+        writeField(dst, text);
+        writeField(dst, sessionId);
+    }
+
+
+    private static int encodedLength(TLSMessage message, byte[] text, byte[] sessionId) {
+        if (message == null) {
+            return 1;
+        }
+        return 2 + fieldLength(message.getPayload()) + fieldLength(text) + fieldLength(sessionId);
+    }
+
+
+    private static int fieldLength(byte[] field) {
+        return field == null ? 0 : varintLength(field.length) + field.length;
+    }
+
+
+    private static void writeField(ByteBuffer dst, byte[] field) {
+        if (field == null) {
+            return;
+        }
+        if (field.length > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Field exceeds " + MAX_FIELD_LENGTH + " bytes");
+        }
+        writeVarint(dst, field.length);
+        dst.put(field);
+    }
+
+
+    private static byte[] readField(ByteBuffer src) {
+        int length = readVarint(src);
+        if (length > MAX_FIELD_LENGTH || length > src.remaining()) {
+            throw new IllegalArgumentException("Bad field length: " + length);
+        }
+        byte[] field = new byte[length];
+        src.get(field);
+        return field;
+    }
+
+
+     // Unsigned LEB128: 7 bits per byte, high bit set on all but the last
+    static void writeVarint(ByteBuffer dst, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+
+    static int readVarint(ByteBuffer src) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = src.get();
+            if (shift == 28 && (b & 0xF0) != 0) {
+                break;  // Fifth byte: only its low 4 bits fit in an int, and it must be the last
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+
+    static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+}
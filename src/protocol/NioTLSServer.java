@@ -0,0 +1,418 @@
+package protocol;
+
+import utils.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+ // Non-blocking server for many concurrent connections
+ // One selector thread does all socket I/O, using the same [length (4)][MessageCodec bytes]
+ // framing as SocketChannelTransport. Each connection has its own TLSServer session on the shared ServerContext.
+ // Once a whole message has arrived, the handshake step (and the modPow work in it) runs
+ // on a worker pool. The reply is handed back to the selector thread to write.
+ // The protocol is strictly request/response, so a connection has at most one step
+ // in flight and stops reading until its reply is written. Its session is therefore
+ // never used by two threads at once.
+ // After the handshake, application data is decrypted and passed to the application
+ // handler. A non-null return value is sealed and sent back.
+public class NioTLSServer implements Closeable {
+
+    private static final int INITIAL_BUFFER = 4 * 1024;
+
+    private final ServerContext context;  // Every connection gets a session on it
+    private final UnaryOperator<byte[]> application;
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private final ExecutorService workers;
+    private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean running;
+    private Thread loop;
+
+    public NioTLSServer(ServerContext context, InetSocketAddress address, int workerThreads,
+                        UnaryOperator<byte[]> application) throws IOException {
+        this.context = context;
+        this.application = application;
+        this.selector = Selector.open();
+        this.listener = ServerSocketChannel.open();
+        listener.bind(address, 1024);
+        listener.configureBlocking(false);
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "tls-handshake-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+     // Start the selector thread
+    public void start() {
+        running = true;
+        loop = new Thread(this::selectLoop, "tls-selector");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) listener.getLocalAddress();
+    }
+
+    public long getCompletedHandshakes() {
+        return handshakes.get();
+    }
+
+    public int getOpenConnections() {
+        return connections.get();
+    }
+
+
+     // Stop accepting, drop every connection and stop the workers
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (loop != null) {
+            try {
+                loop.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        workers.shutdownNow();
+    }
+
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+
+                // Replies finished by the workers since the last pass
+                Connection done;
+                while ((done = completed.poll()) != null) {
+                    done.stepDone();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.read();
+                    } else if (key.isWritable()) {
+                        connection.write();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                Log.error("Selector loop stopped: {}", e.getMessage());
+            }
+        }
+    }
+
+
+     // Accept every pending connection; a failure (e.g. out of file descriptors) drops
+     // only that connection and leaves the listener registered for the next pass
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+            } catch (IOException e) {
+                Log.error("Accept failed: {}", e.getMessage());
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel, context.newSession());
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                Log.error("Could not set up connection: {}", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException closeFailure) {
+                    // Already gone
+                }
+            }
+        }
+    }
+
+
+     // Per-connection context; everything but the reply fields belongs to the selector thread
+    private final class Connection {
+        final SocketChannel channel;
+        final TLSServer session;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);  // Unread bytes, in write mode
+        ByteBuffer out;                                       // Reply being written, or null
+
+        // Set by the worker, published to the selector thread through the completed queue
+        ByteBuffer reply;
+        boolean closeAfterReply;
+
+        Connection(SocketChannel channel, TLSServer session) {
+            this.channel = channel;
+            this.session = session;
+        }
+
+
+        void read() {
+            try {
+                if (!in.hasRemaining()) {
+                    // Grows only as bytes arrive; a full buffer always holds a partial frame
+                    in = resize(in, Math.min(in.capacity() * 2, 4 + SocketChannelTransport.MAX_FRAME_LENGTH));
+                }
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+                dispatchNext();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+
+        void write() {
+            try {
+                channel.write(out);
+                if (!out.hasRemaining()) {
+                    out = null;
+                    dispatchNext();
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+
+         // Back on the selector thread with the worker's reply
+        void stepDone() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            if (reply == null && closeAfterReply) {
+                close();
+                return;
+            }
+
+            out = reply;
+            reply = null;
+            if (out == null) {
+                dispatchNext();
+                return;
+            }
+
+            try {
+                channel.write(out);
+                if (out.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (closeAfterReply) {
+                    close();
+                } else {
+                    out = null;
+                    dispatchNext();
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+
+         // Hand the next buffered message to a worker, or go back to reading
+        private void dispatchNext() {
+            if (closeAfterReply) {
+                close();
+                return;
+            }
+
+            in.flip();
+            TLSMessage message;
+            boolean closeSignal;
+            try {
+                if (in.remaining() < 4) {
+                    resumeReading();
+                    return;
+                }
+                int length = in.getInt(in.position());
+                if (length <= 0 || length > SocketChannelTransport.MAX_FRAME_LENGTH) {
+                    throw new IllegalArgumentException("Bad frame length: " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    resumeReading();  // read() grows the buffer as the rest arrives
+                    return;
+                }
+
+                int end = in.position() + 4 + length;
+                int limit = in.limit();
+                in.position(in.position() + 4).limit(end);
+                message = MessageCodec.decode(in);
+                closeSignal = message == null;
+                if (in.hasRemaining()) {
+                    throw new IllegalArgumentException("Trailing bytes after message");
+                }
+                in.limit(limit).position(end);
+                in.compact();
+                if (in.capacity() > INITIAL_BUFFER && in.position() <= INITIAL_BUFFER) {
+                    in = resize(in, INITIAL_BUFFER);  // Don't keep a large message's buffer while idle
+                }
+            } catch (IllegalArgumentException e) {
+                fail(e);
+                return;
+            }
+
+            if (closeSignal) {
+                close();
+                return;
+            }
+
+            // Stop reading until the step is done; the reply comes back through stepDone
+            key.interestOps(0);
+            try {
+                workers.execute(() -> runStep(message));
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+
+
+        private void resumeReading() {
+            in.compact();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+
+         // Worker side: advance the handshake (or answer application data)
+        private void runStep(TLSMessage message) {
+            try {
+                switch (message.getType()) {
+                    case CLIENT_HELLO:
+                        reply = frames(session.handleClientHello(message));
+                        closeAfterReply = reply == null;  // The step refused the message
+                        break;
+                    case CLIENT_KEY_EXCHANGE:
+                        reply = frames(session.handleClientKeyExchange(message));
+                        closeAfterReply = reply == null;
+                        break;
+                    case FINISHED:
+                        if (session.handleClientFinished(message)) {
+                            handshakes.incrementAndGet();
+                        } else {
+                            closeAfterReply = true;
+                        }
+                        break;
+                    case APPLICATION_DATA:
+                        byte[] response = application.apply(session.receiveRecord(message));
+                        if (response != null) {
+                            List<TLSMessage> records = new ArrayList<>();
+                            session.sendData(response, records::add);
+                            reply = frames(records.toArray(new TLSMessage[0]));
+                        }
+                        break;
+                    default:
+                        Log.error("Unexpected {} from client", message.getType());
+                        closeAfterReply = true;
+                }
+            } catch (RuntimeException e) {
+                Log.error("Handshake step failed: {}", e.getMessage());
+                closeAfterReply = true;
+            }
+
+            completed.add(this);
+            selector.wakeup();
+        }
+
+
+        private void fail(Exception e) {
+            Log.error("Dropping connection: {}", e.getMessage());
+            close();
+        }
+
+
+        private void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            connections.decrementAndGet();
+        }
+    }
+
+
+     // Frame messages as [length (4)][MessageCodec bytes] each; null if there are none
+    private static ByteBuffer frames(TLSMessage... messages) {
+        if (messages == null || messages.length == 0 || messages[0] == null) {
+            return null;
+        }
+
+        int total = 0;
+        for (TLSMessage message : messages) {
+            total += 4 + MessageCodec.encodedLength(message);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (TLSMessage message : messages) {
+            buffer.putInt(MessageCodec.encodedLength(message));
+            MessageCodec.encode(message, buffer);
+        }
+        return buffer.flip();
+    }
+
+
+     // Copy a buffer in write mode into a new one of the given capacity
+    private static ByteBuffer resize(ByteBuffer buffer, int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        resized.put(buffer);
+        return resized;
+    }
+}
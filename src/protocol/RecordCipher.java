@@ -0,0 +1,109 @@
+package protocol;
+
+import crypto.ChaCha20;
+import crypto.HMAC;
+import crypto.KDF;
+
+import java.nio.ByteBuffer;
+
+ // Record protection for one direction of a connection
+ // Each record is encrypted with ChaCha20 under the direction's write key and a
+ // per-record nonce: the write IV XORed with an implicit 64-bit sequence number,
+ // as in TLS 1.3. Sender and receiver count records independently, so records
+ // must be opened in the order they were sealed.
+ // Records are authenticated encrypt-then-MAC with HMAC-SHA256 under the
+ // direction's MAC key; the keyed HMAC keeps its pad states for the session.
+public class RecordCipher {
+
+    private final ChaCha20 cipher;
+    private final HMAC mac;
+    private final byte[] tag = new byte[HMAC.MAC_LENGTH];
+    private final byte[] iv;
+    private final byte[] nonce = new byte[ChaCha20.NONCE_LENGTH];
+    private long sequence;
+
+    public RecordCipher(byte[] key, byte[] iv, byte[] macKey) {
+        if (iv.length != ChaCha20.NONCE_LENGTH) {
+            throw new IllegalArgumentException("Record IV must be " + ChaCha20.NONCE_LENGTH + " bytes");
+        }
+        this.cipher = new ChaCha20(key);
+        this.mac = new HMAC(macKey);
+        this.iv = iv.clone();
+    }
+
+
+     // Sender side: this side's write key, IV and MAC key
+    public static RecordCipher forWriting(HandshakeState state, boolean client) {
+        KDF.SessionKeys keys = state.getSessionKeys();
+        return client
+                ? new RecordCipher(keys.clientWriteKey, keys.clientWriteIv, keys.clientMacKey)
+                : new RecordCipher(keys.serverWriteKey, keys.serverWriteIv, keys.serverMacKey);
+    }
+
+
+     // Receiver side: the peer's write key, IV and MAC key
+    public static RecordCipher forReading(HandshakeState state, boolean client) {
+        return forWriting(state, !client);
+    }
+
+
+     // Encrypt src.remaining() bytes as the next outgoing record into dst
+    public void seal(ByteBuffer src, ByteBuffer dst) {
+        cipher.process(nextNonce(), 0, src, dst);
+    }
+
+
+     // Decrypt src.remaining() bytes as the next incoming record into dst
+    public void open(ByteBuffer src, ByteBuffer dst) {
+        cipher.process(nextNonce(), 0, src, dst);
+    }
+
+
+     // Append the MAC of record[from, position) at the record's position
+    public void sign(ByteBuffer record, int from) {
+        int end = record.position();
+        computeMac(record, from, end);
+        record.put(tag);
+    }
+
+
+     // Check the MAC stored at record[to, to + 32) against record[from, to) in constant time
+     // Positions and limits are left unchanged
+    public boolean verify(ByteBuffer record, int from, int to) {
+        computeMac(record, from, to);
+        int diff = 0;
+        for (int i = 0; i < tag.length; i++) {
+            diff |= tag[i] ^ record.get(to + i);
+        }
+        return diff == 0;
+    }
+
+
+     // Sequence number the next record will use
+    public long getSequence() {
+        return sequence;
+    }
+
+
+    private void computeMac(ByteBuffer record, int from, int to) {
+        int position = record.position();
+        int limit = record.limit();
+        record.limit(to).position(from);
+        mac.update(record).doFinal(tag, 0);
+        record.limit(limit).position(position);
+    }
+
+
+     // nonce = iv XOR big-endian sequence number in the low 8 bytes
+    private byte[] nextNonce() {
+        if (sequence == -1L) {
+            throw new IllegalStateException("Record sequence number exhausted");
+        }
+        long seq = sequence++;
+        System.arraycopy(iv, 0, nonce, 0, 4);
+        for (int i = 0; i < 8; i++) {
+            nonce[4 + i] = (byte) (iv[4 + i] ^ (seq >>> (56 - 8 * i)));
+        }
+        return nonce;
+    }
+}
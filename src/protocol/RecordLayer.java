@@ -0,0 +1,188 @@
+package protocol;
+
+import crypto.HMAC;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Consumer;
+
+ // Record layer for one endpoint of a connection
+ // Outgoing data is split into records of at most MAX_FRAGMENT bytes, so no single
+ // allocation grows with the payload and the peer can consume records as they arrive.
+ // Record payload: [sequence number (8)][fragment length (4)][encrypted fragment][MAC (32)]
+ // The MAC covers everything before it and is checked before anything is decrypted.
+ // The explicit sequence number must match the receiver's own count, which
+ // rejects dropped, replayed and reordered records.
+ // The ByteBuffer overloads of write and read work directly on caller buffers,
+ // heap or direct, and allocate nothing.
+public class RecordLayer {
+
+    public static final int MAX_FRAGMENT = 16 * 1024;
+    public static final int HEADER_LENGTH = 12;
+    public static final int MAC_LENGTH = HMAC.MAC_LENGTH;
+
+    private final RecordCipher writeCipher;  // Records we send
+    private final RecordCipher readCipher;   // Records the peer sends
+
+     // client selects which side's write keys seal outgoing records
+    public RecordLayer(HandshakeState state, boolean client) {
+        this.writeCipher = RecordCipher.forWriting(state, client);
+        this.readCipher = RecordCipher.forReading(state, client);
+    }
+
+
+     // Seal data as a single record
+    public TLSMessage seal(TLSMessage.MessageType type, byte[] data) {
+        return seal(type, ByteBuffer.wrap(data), data.length);
+    }
+
+
+     // Seal all of data, handing each record to sink as soon as it is ready
+    public void write(TLSMessage.MessageType type, ByteBuffer data, Consumer<TLSMessage> sink) {
+        do {
+            sink.accept(seal(type, data, Math.min(data.remaining(), MAX_FRAGMENT)));
+        } while (data.hasRemaining());
+    }
+
+
+     // Bytes needed to seal length bytes of data as records
+    public static int sealedLength(int length) {
+        int records = Math.max(1, (length + MAX_FRAGMENT - 1) / MAX_FRAGMENT);
+        return length + records * (HEADER_LENGTH + MAC_LENGTH);
+    }
+
+
+     // Seal all of src into dst as consecutive records, returning the record count
+     // dst needs sealedLength(src.remaining()) bytes and must not overlap src
+    public int write(ByteBuffer src, ByteBuffer dst) {
+        if (dst.remaining() < sealedLength(src.remaining())) {
+            throw new IllegalArgumentException("Destination buffer too small");
+        }
+
+        int count = 0;
+        do {
+            int length = Math.min(src.remaining(), MAX_FRAGMENT);
+            int start = dst.position();
+            putLong(dst, writeCipher.getSequence());
+            putInt(dst, length);
+
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            writeCipher.seal(src, dst);
+            src.limit(limit);
+            writeCipher.sign(dst, start);
+            count++;
+        } while (src.hasRemaining());
+        return count;
+    }
+
+
+     // Open the record at src's position into dst, returning the fragment length
+     // Returns -1 without consuming anything if src does not yet hold a whole record.
+     // dst may share memory with src as long as it starts at or before the record.
+    public int read(ByteBuffer src, ByteBuffer dst) {
+        if (src.remaining() < HEADER_LENGTH) {
+            return -1;
+        }
+
+        int start = src.position();
+        long sequence = getLong(src, start);
+        int length = getInt(src, start + 8);
+        if (length < 0 || length > MAX_FRAGMENT) {
+            throw new IllegalArgumentException("Bad record length: " + length);
+        }
+        if (src.remaining() < HEADER_LENGTH + length + MAC_LENGTH) {
+            return -1;
+        }
+        if (dst.remaining() < length) {
+            throw new IllegalArgumentException("Destination buffer too small");
+        }
+        int macStart = start + HEADER_LENGTH + length;
+        checkMac(src, start, macStart);
+        checkSequence(sequence);
+
+        int limit = src.limit();
+        src.position(start + HEADER_LENGTH).limit(macStart);
+        readCipher.open(src, dst);
+        src.limit(limit).position(macStart + MAC_LENGTH);
+        return length;
+    }
+
+
+     // Check and decrypt one record, returning its fragment
+    public byte[] open(TLSMessage record) {
+        byte[] payload = record.getPayload();
+        if (payload == null || payload.length < HEADER_LENGTH + MAC_LENGTH) {
+            throw new IllegalArgumentException("Truncated record");
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        long sequence = in.getLong();
+        int length = in.getInt();
+        if (length < 0 || length > MAX_FRAGMENT || length != in.remaining() - MAC_LENGTH) {
+            throw new IllegalArgumentException("Bad record length: " + length);
+        }
+        checkMac(in, 0, HEADER_LENGTH + length);
+        checkSequence(sequence);
+
+        byte[] fragment = new byte[length];
+        in.limit(HEADER_LENGTH + length);
+        readCipher.open(in, ByteBuffer.wrap(fragment));
+        return fragment;
+    }
+
+
+     // Seal the next length bytes of src into one record
+    private TLSMessage seal(TLSMessage.MessageType type, ByteBuffer src, int length) {
+        if (length > MAX_FRAGMENT) {
+            throw new IllegalArgumentException("Record fragment exceeds " + MAX_FRAGMENT + " bytes");
+        }
+
+        byte[] payload = new byte[HEADER_LENGTH + length + MAC_LENGTH];
+        ByteBuffer out = ByteBuffer.wrap(payload);
+        out.putLong(writeCipher.getSequence()).putInt(length);
+
+        int limit = src.limit();
+        src.limit(src.position() + length);
+        writeCipher.seal(src, out);
+        src.limit(limit);
+        writeCipher.sign(out, 0);
+
+        return new TLSMessage(type, payload);
+    }
+
+
+    private void checkMac(ByteBuffer record, int from, int to) {
+        if (!readCipher.verify(record, from, to)) {
+            throw new IllegalArgumentException("Bad record MAC");
+        }
+    }
+
+
+    private void checkSequence(long sequence) {
+        if (sequence != readCipher.getSequence()) {
+            throw new IllegalStateException("Unexpected record sequence number " + sequence +
+                    ", expected " + readCipher.getSequence());
+        }
+    }
+
+
+     // Headers are big-endian whatever order the caller's buffer uses
+    private static long getLong(ByteBuffer buffer, int index) {
+        long value = buffer.getLong(index);
+        return buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+    }
+
+    private static int getInt(ByteBuffer buffer, int index) {
+        int value = buffer.getInt(index);
+        return buffer.order() == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
+    private static void putLong(ByteBuffer buffer, long value) {
+        buffer.putLong(buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+    }
+
+    private static void putInt(ByteBuffer buffer, int value) {
+        buffer.putInt(buffer.order() == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value));
+    }
+}
@@ -0,0 +1,140 @@
+package protocol;
+
+import crypto.DHParameterPool;
+import crypto.DiffieHellman;
+import crypto.RSA;
+import crypto.RSAKeyStore;
+import utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+ // Long-lived server material shared by every connection
+ // Holds the RSA key pair, the certificate template built from it and the DH parameter
+ // pool. The fields are final and never change after construction, and the pool is
+ // thread-safe, so one context serves any number of concurrent sessions. newSession()
+ // only allocates the per-handshake state: no key loading, no locks.
+public final class ServerContext {
+
+    // Server identity survives restarts in this key store
+    private static final Path KEY_STORE_FILE = Paths.get("server_key.bin");
+
+    // DH parameter pool defaults
+    private static final Path DH_PARAMS_FILE = Paths.get("dh_params.bin");
+    private static final int DH_POOL_CAPACITY = 4;
+    private static final int DH_POOL_LOW_WATERMARK = 1;
+    private static final int DH_POOL_WORKERS = 1;
+
+    private final RSA.KeyPair keyPair;
+    private final byte[] certificatePrefix;  // [len e][e][len n][n]; never handed out
+    private final DHParameterPool dhPool;
+
+    public ServerContext(RSA.KeyPair keyPair, DHParameterPool dhPool) {
+        this.keyPair = keyPair;
+        this.certificatePrefix = encodeCertificatePrefix(keyPair.publicKey);
+        this.dhPool = dhPool;
+    }
+
+
+     // Load (or on first start generate) the RSA keys and start the DH parameter pool
+     // dhFallback decides what a handshake does when no pooled DH parameters are ready
+    public static ServerContext load(DHParameterPool.Fallback dhFallback) {
+        // Load the RSA key pair for authentication, generating it only on first start
+        long start = System.nanoTime();
+        RSA.KeyPair rsaKeys = loadOrGenerateKeys();
+        Log.info("RSA keys ready in {} ms", (System.nanoTime() - start) / 1_000_000);
+
+        // Start filling the DH parameter pool in the background, warm from disk if possible
+        DHParameterPool dhPool = new DHParameterPool(2048, DH_POOL_CAPACITY, DH_POOL_LOW_WATERMARK,
+                DH_POOL_WORKERS, dhFallback);
+        if (Files.exists(DH_PARAMS_FILE)) {
+            try {
+                int loaded = dhPool.load(DH_PARAMS_FILE);
+                Log.info("Loaded {} DH parameter sets from {}", loaded, DH_PARAMS_FILE);
+            } catch (IOException e) {
+                Log.warn("Ignoring DH parameter file: {}", e.getMessage());
+            }
+        }
+        dhPool.start();
+
+        // The named group is used whenever the pool runs dry, so build its table up front
+        if (dhFallback == DHParameterPool.Fallback.NAMED_GROUP) {
+            DiffieHellman.MODP_2048.precomputeFixedBase();
+        }
+
+        return new ServerContext(rsaKeys, dhPool);
+    }
+
+
+     // Per-connection server for one handshake and the records that follow
+    public TLSServer newSession() {
+        return new TLSServer(this);
+    }
+
+
+    public RSA.KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    public DHParameterPool getDhPool() {
+        return dhPool;
+    }
+
+
+     // Persist unused DH parameters for the next start and stop background workers
+    public void shutdown() {
+        try {
+            dhPool.save(DH_PARAMS_FILE);
+        } catch (IOException e) {
+            Log.warn("Could not save DH parameters: {}", e.getMessage());
+        }
+        dhPool.shutdown();
+    }
+
+
+    int certificatePrefixLength() {
+        return certificatePrefix.length;
+    }
+
+     // Copy the certificate template to the start of a new certificate
+    void writeCertificatePrefix(byte[] dst) {
+        System.arraycopy(certificatePrefix, 0, dst, 0, certificatePrefix.length);
+    }
+
+
+     // Reuse the stored key pair if it is valid, otherwise generate and store a new one
+    private static RSA.KeyPair loadOrGenerateKeys() {
+        try {
+            RSA.KeyPair stored = RSAKeyStore.load(KEY_STORE_FILE);
+            if (stored != null) {
+                Log.info("Loaded RSA keys from {}", KEY_STORE_FILE);
+                return stored;
+            }
+        } catch (IOException e) {
+            Log.warn("Could not read key store: {}", e.getMessage());
+        }
+
+        RSA.KeyPair generated = RSA.generateKeyPair(2048);
+        try {
+            RSAKeyStore.save(generated, KEY_STORE_FILE);
+        } catch (IOException e) {
+            Log.warn("Could not save key store: {}", e.getMessage());
+        }
+        return generated;
+    }
+
+
+    private static byte[] encodeCertificatePrefix(RSA.PublicKey publicKey) {
+        byte[] rsaE = publicKey.e.toByteArray();
+        byte[] rsaN = publicKey.n.toByteArray();
+
+        byte[] prefix = new byte[8 + rsaE.length + rsaN.length];
+        TLSServer.writeInt(prefix, 0, rsaE.length);
+        System.arraycopy(rsaE, 0, prefix, 4, rsaE.length);
+        TLSServer.writeInt(prefix, 4 + rsaE.length, rsaN.length);
+        System.arraycopy(rsaN, 0, prefix, 8 + rsaE.length, rsaN.length);
+        return prefix;
+    }
+}
@@ -0,0 +1,292 @@
+package protocol;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+ // Transport between two processes on the same host through a memory-mapped file
+ // The file holds two single-producer/single-consumer rings, one per direction. Each
+ // ring has a producer and a consumer sequence: running byte counts in their own
+ // cache lines. Messages are framed as [length (4)][MessageCodec bytes] and may wrap
+ // around the end of the ring.
+ // The sender copies a frame in, then publishes it with a release store of its
+ // sequence. The receiver sees it with an acquire load, copies it out, and frees the
+ // space the same way. Nothing on this path makes a system call. A waiting side spins
+ // briefly, then yields, then parks for intervals that double up to MAX_PARK_NANOS.
+ // Each wait starts again from spinning, so a busy exchange never pays the long parks.
+ // SPSC means one thread sends and one thread receives on each side, which is how
+ // Main uses a transport. The server creates the file and deletes it on close().
+ // The client waits for it to appear.
+ // Layout: [header (64)][server -> client ring][client -> server ring]
+ // Header: [magic (4)][ring capacity (4)][server closed (8)][client closed (8)]
+ // Ring:   [producer sequence (8)][pad to 64][consumer sequence (8)][pad to 128][data]
+public class SharedMemoryTransport implements Transport {
+
+    public static final int DEFAULT_CAPACITY = 256 * 1024;
+
+    private static final int MAGIC = 0x544C5331;  // "TLS1"
+    private static final int HEADER_LENGTH = 64;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int SERVER_CLOSED_OFFSET = 8;
+    private static final int CLIENT_CLOSED_OFFSET = 16;
+    private static final int PRODUCER_OFFSET = 0;
+    private static final int CONSUMER_OFFSET = 64;
+    private static final int RING_HEADER_LENGTH = 128;
+
+    // Spinning only helps if the peer is running on another core at the same time
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+    private static final int YIELDS = 100;
+    private static final long MIN_PARK_NANOS = 50_000;    // First park; doubles on each idle wake-up
+    private static final long MAX_PARK_NANOS = 5_000_000;  // ~200 wake-ups a second while nobody sends
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final Path file;
+    private final boolean server;
+    private final MappedByteBuffer map;
+    private final int capacity;
+    private final int sendRing;     // Offset of the ring we produce into
+    private final int receiveRing;  // Offset of the ring we consume from
+    private final int peerClosedOffset;
+    private final int ownClosedOffset;
+
+    // Positioned views of the map for bulk copies, one per direction so that the
+    // sending and the receiving thread never share one
+    private final ByteBuffer sendView;
+    private final ByteBuffer receiveView;
+
+    // Cached copies of the sequences, to avoid re-reading shared lines on every message
+    private long sent;           // Our producer sequence
+    private long sendLimit;      // Last consumer sequence seen for our ring, plus capacity
+    private long received;       // Our consumer sequence
+    private long available;      // Last producer sequence seen for the peer's ring
+
+    private byte[] sendScratch = new byte[2 * 1024];
+    private byte[] receiveScratch = new byte[2 * 1024];
+
+    private SharedMemoryTransport(Path file, boolean server, MappedByteBuffer map, int capacity) {
+        this.file = file;
+        this.server = server;
+        this.map = map;
+        this.capacity = capacity;
+
+        int serverToClient = HEADER_LENGTH;
+        int clientToServer = HEADER_LENGTH + RING_HEADER_LENGTH + capacity;
+        this.sendRing = server ? serverToClient : clientToServer;
+        this.receiveRing = server ? clientToServer : serverToClient;
+        this.ownClosedOffset = server ? SERVER_CLOSED_OFFSET : CLIENT_CLOSED_OFFSET;
+        this.peerClosedOffset = server ? CLIENT_CLOSED_OFFSET : SERVER_CLOSED_OFFSET;
+
+        this.sendLimit = capacity;
+        this.sendView = map.duplicate();
+        this.receiveView = map.duplicate();
+    }
+
+
+     // Server side: create (or replace) the file with empty rings of the given capacity
+    public static SharedMemoryTransport create(Path file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity % 64 != 0) {
+            throw new IllegalArgumentException("Capacity must be a positive multiple of 64");
+        }
+
+        // A new file, so a stale mapping from an earlier run can't be picked up
+        Files.deleteIfExists(file);
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength(capacity));
+        }
+
+        map.putInt(CAPACITY_OFFSET, capacity);
+        INTS.setRelease(map, 0, MAGIC);  // Publish: the client may attach from here on
+        return new SharedMemoryTransport(file, true, map, capacity);
+    }
+
+
+     // Client side: attach to the server's file, checking every retryMillis until it is ready
+    public static SharedMemoryTransport open(Path file, long retryMillis) throws IOException, InterruptedException {
+        while (true) {
+            if (Files.exists(file)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    if (channel.size() >= HEADER_LENGTH) {
+                        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+                        if ((int) INTS.getAcquire(header, 0) == MAGIC) {
+                            int capacity = header.getInt(CAPACITY_OFFSET);
+                            if (capacity <= 0 || channel.size() < fileLength(capacity)) {
+                                throw new IOException("Corrupt shared memory file: " + file);
+                            }
+                            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength(capacity));
+                            return new SharedMemoryTransport(file, false, map, capacity);
+                        }
+                    }
+                } catch (NoSuchFileException e) {
+                    // Replaced between the check and the open
+                }
+            }
+            Thread.sleep(retryMillis);
+        }
+    }
+
+
+    @Override
+    public void send(TLSMessage message) throws IOException {
+        int length = MessageCodec.encodedLength(message);
+        int frame = 4 + length;
+        if (frame > capacity) {
+            throw new IOException("Message of " + length + " bytes exceeds ring capacity " + capacity);
+        }
+        if (sendScratch.length < frame) {
+            sendScratch = new byte[frame];
+        }
+
+        ByteBuffer encoded = ByteBuffer.wrap(sendScratch, 0, frame);
+        encoded.putInt(length);
+        MessageCodec.encode(message, encoded);
+
+        // Wait for the consumer to free enough space
+        int idle = 0;
+        while (sent + frame > sendLimit) {
+            sendLimit = (long) LONGS.getAcquire(map, sendRing + CONSUMER_OFFSET) + capacity;
+            if (sent + frame > sendLimit) {
+                if (isPeerClosed()) {
+                    throw new IOException("Peer closed");
+                }
+                idle = backOff(idle);
+            }
+        }
+
+        copyIn(sent, sendScratch, frame);
+        sent += frame;
+        LONGS.setRelease(map, sendRing + PRODUCER_OFFSET, sent);
+    }
+
+
+    @Override
+    public TLSMessage receive() throws IOException {
+        if (!awaitBytes(4)) {
+            return null;  // Peer closed with nothing left to read
+        }
+        copyOut(received, receiveScratch, 4);
+        int length = ((receiveScratch[0] & 0xFF) << 24) | ((receiveScratch[1] & 0xFF) << 16) |
+                ((receiveScratch[2] & 0xFF) << 8) | (receiveScratch[3] & 0xFF);
+        if (length <= 0 || length > capacity - 4) {
+            throw new IOException("Bad frame length: " + length);
+        }
+
+        // Can't return false: the header is already published, and a peer that closes
+        // with part of a message unread makes awaitBytes throw instead
+        awaitBytes(4 + length);
+        if (receiveScratch.length < length) {
+            receiveScratch = new byte[length];
+        }
+        copyOut(received + 4, receiveScratch, length);
+        received += 4 + length;
+        LONGS.setRelease(map, receiveRing + CONSUMER_OFFSET, received);
+
+        try {
+            return MessageCodec.decode(ByteBuffer.wrap(receiveScratch, 0, length));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed message: " + e.getMessage());
+        }
+    }
+
+
+     // Mark our side closed; the server also removes the file (mappings stay valid)
+    @Override
+    public void close() throws IOException {
+        LONGS.setRelease(map, ownClosedOffset, 1L);
+        if (server) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+     // Wait until count bytes are published; false if the peer closed before that
+    private boolean awaitBytes(int count) throws IOException {
+        int idle = 0;
+        while (available - received < count) {
+            available = (long) LONGS.getAcquire(map, receiveRing + PRODUCER_OFFSET);
+            if (available - received >= count) {
+                break;
+            }
+            if (isPeerClosed()) {
+                // Anything published before the close flag is visible now
+                available = (long) LONGS.getAcquire(map, receiveRing + PRODUCER_OFFSET);
+                if (available - received >= count) {
+                    break;
+                }
+                if (available != received) {
+                    throw new IOException("Peer closed mid-message");
+                }
+                return false;
+            }
+            idle = backOff(idle);
+        }
+        return true;
+    }
+
+
+    private boolean isPeerClosed() {
+        return (long) LONGS.getAcquire(map, peerClosedOffset) != 0;
+    }
+
+
+     // Copy length bytes into the ring at sequence position, wrapping at the end
+     // (relative bulk put on a reused view: the absolute overloads need JDK 16)
+    private void copyIn(long position, byte[] src, int length) {
+        int data = sendRing + RING_HEADER_LENGTH;
+        int index = (int) (position % capacity);
+        int first = Math.min(length, capacity - index);
+        sendView.position(data + index);
+        sendView.put(src, 0, first);
+        if (first < length) {
+            sendView.position(data);
+            sendView.put(src, first, length - first);
+        }
+    }
+
+
+    private void copyOut(long position, byte[] dst, int length) {
+        int data = receiveRing + RING_HEADER_LENGTH;
+        int index = (int) (position % capacity);
+        int first = Math.min(length, capacity - index);
+        receiveView.position(data + index);
+        receiveView.get(dst, 0, first);
+        if (first < length) {
+            receiveView.position(data);
+            receiveView.get(dst, first, length - first);
+        }
+    }
+
+
+     // Spin, then yield, then park for longer and longer: low latency while busy without
+     // burning a core while idle. idle counts the calls so far in the current wait.
+    private static int backOff(int idle) {
+        if (idle < SPINS) {
+            Thread.onSpinWait();
+        } else if (idle < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            int parks = Math.min(idle - SPINS - YIELDS, 16);  // Keeps the shift from overflowing
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << parks, MAX_PARK_NANOS));
+        }
+        return idle + 1;
+    }
+
+
+    private static long fileLength(int capacity) {
+        return HEADER_LENGTH + 2L * (RING_HEADER_LENGTH + capacity);
+    }
+}
@@ -0,0 +1,147 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+ // Transport over a blocking SocketChannel
+ // Each message is framed as [length (4)][MessageCodec bytes]. Reads and writes use
+ // separate reusable buffers, so one thread may receive while another sends.
+ // The direct buffers stay at INITIAL_BUFFER bytes, so an idle connection holds little
+ // memory. A larger message goes through a heap buffer that only lives for that call:
+ // on receive it grows as bytes arrive, never just because a header claims a length.
+public class SocketChannelTransport implements Transport {
+
+    public static final int MAX_FRAME_LENGTH = MessageCodec.MAX_FIELD_LENGTH + 1024;
+    private static final int INITIAL_BUFFER = 2 * 1024;  // Fits every handshake message
+    private static final int CHUNK = 16 * 1024;          // Bytes per read/write on a large message
+
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(4);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER);
+
+    public SocketChannelTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(true);
+        channel.socket().setTcpNoDelay(true);  // Handshake messages are small and latency-bound
+    }
+
+
+     // Wait for one peer on an already bound server channel
+    public static SocketChannelTransport accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        try {
+            return new SocketChannelTransport(channel);
+        } catch (IOException e) {
+            channel.close();  // Don't leak a channel that failed setup
+            throw e;
+        }
+    }
+
+
+     // Connect to a server, retrying every retryMillis until it is listening
+    public static SocketChannelTransport connect(InetSocketAddress address, long retryMillis)
+            throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return new SocketChannelTransport(SocketChannel.open(address));
+            } catch (ConnectException e) {
+                Thread.sleep(retryMillis);  // Server not up yet
+            }
+        }
+    }
+
+
+    @Override
+    public void send(TLSMessage message) throws IOException {
+        int length = MessageCodec.encodedLength(message);
+        ByteBuffer buffer = 4 + length <= writeBuffer.capacity()
+                ? writeBuffer.clear()
+                : ByteBuffer.allocate(4 + length);  // Only for this message
+
+        buffer.putInt(length);
+        MessageCodec.encode(message, buffer);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            // Bounded writes keep the JDK's temporary direct copy of a heap buffer small
+            int end = buffer.limit();
+            buffer.limit(Math.min(end, buffer.position() + CHUNK));
+            channel.write(buffer);
+            buffer.limit(end);
+        }
+    }
+
+
+    @Override
+    public TLSMessage receive() throws IOException {
+        header.clear();
+        if (!readFully(header)) {
+            return null;  // Peer hung up between messages
+        }
+
+        int length = header.getInt(0);
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Bad frame length: " + length);
+        }
+        ByteBuffer body = length <= readBuffer.capacity() ? readSmall(length) : readLarge(length);
+
+        try {
+            return MessageCodec.decode(body);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed message: " + e.getMessage());
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    private ByteBuffer readSmall(int length) throws IOException {
+        readBuffer.clear().limit(length);
+        if (!readFully(readBuffer)) {
+            throw new EOFException("Connection closed mid-message");
+        }
+        return readBuffer.flip();
+    }
+
+
+     // Read a frame larger than the direct buffer into a heap buffer that doubles as
+     // bytes arrive, so a header alone never allocates the full declared length
+    private ByteBuffer readLarge(int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * INITIAL_BUFFER);
+        while (buffer.position() < length) {
+            if (buffer.position() == buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(2 * buffer.capacity(), length));
+                buffer = larger.put(buffer.flip());
+            }
+            buffer.limit(Math.min(buffer.capacity(), Math.min(length, buffer.position() + CHUNK)));
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed mid-message");
+            }
+        }
+        return buffer.flip();
+    }
+
+
+     // Fill buffer; false on EOF before the first byte
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == start) {
+                    return false;
+                }
+                throw new EOFException("Connection closed mid-frame");
+            }
+        }
+        return true;
+    }
+}
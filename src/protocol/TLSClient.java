@@ -1,14 +1,14 @@
 package protocol;
 
-import crypto.RSA;
 import crypto.DiffieHellman;
 import crypto.KDF;
-import utils.ByteUtils;
-import utils.Colors;
+import utils.Log;
+import utils.Entropy;
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
 
 
  // TLS Client Implementation which handles client-side TLS handshake and encrypted communication
@@ -16,25 +16,23 @@ public class TLSClient {
 
     private final HandshakeState state;
     private DiffieHellman dhClient;
-    private final SecureRandom random;
+    private RecordLayer records;
 
     public TLSClient() {
         this.state = new HandshakeState();
-        this.random = new SecureRandom();
     }
 
      // Step 1: Send Client Hello to initiate handshake
     public TLSMessage sendClientHello() {
-        System.out.println("\n" + Colors.client("Initiating TLS handshake..."));
+        Log.client("\nInitiating TLS handshake...");
 
         // Generate client random nonce (32 bytes)
         byte[] clientRandom = new byte[32];
-        random.nextBytes(clientRandom);
+        Entropy.fill(clientRandom);
         state.setClientRandom(clientRandom);
 
-        System.out.println(Colors.client("Sending CLIENT_HELLO"));
-        System.out.println(Colors.info("Client random: " +
-                ByteUtils.toHex(clientRandom).substring(0, 16) + "..."));
+        Log.client("Sending CLIENT_HELLO");
+        Log.info("Client random: {}", clientRandom);
 
         state.transitionTo(HandshakeState.State.CLIENT_HELLO_SENT);
 
@@ -47,73 +45,96 @@ public class TLSClient {
 
      // Step 3: Process Server Hello and Certificate
     public void handleServerMessages(TLSMessage serverHello, TLSMessage serverCert) {
-        System.out.println("\n" + Colors.client("Received SERVER_HELLO + SERVER_CERTIFICATE"));
+        Log.client("\nReceived SERVER_HELLO + SERVER_CERTIFICATE");
 
         // Process Server Hello
         if (serverHello.getType() != TLSMessage.MessageType.SERVER_HELLO) {
-            System.out.println(Colors.error("Expected SERVER_HELLO"));
+            Log.error("Expected SERVER_HELLO");
             state.transitionTo(HandshakeState.State.ERROR);
             return;
         }
 
         state.setServerRandom(serverHello.getPayload());
-        String sessionInfo = serverHello.getTextData();
-        String sessionId = sessionInfo.split(": ")[1];
+        String sessionId = serverHello.getSessionId();
+        if (sessionId == null) {
+            Log.error("SERVER_HELLO carries no session ID");
+            state.transitionTo(HandshakeState.State.ERROR);
+            return;
+        }
         state.setSessionId(sessionId);
 
-        System.out.println(Colors.info("Session ID: " + sessionId));
-        System.out.println(Colors.info("Server random: " +
-                ByteUtils.toHex(state.getServerRandom()).substring(0, 16) + "..."));
+        Log.info("Session ID: {}", sessionId);
+        Log.info("Server random: {}", state.getServerRandom());
 
         state.transitionTo(HandshakeState.State.SERVER_HELLO_RECEIVED);
 
         // Process Server Certificate
         if (serverCert.getType() != TLSMessage.MessageType.SERVER_CERTIFICATE) {
-            System.out.println(Colors.error("Expected SERVER_CERTIFICATE"));
+            Log.error("Expected SERVER_CERTIFICATE");
             state.transitionTo(HandshakeState.State.ERROR);
             return;
         }
 
-        parseCertificate(serverCert.getPayload());
+        // The field layout and DH parameters are checked here; the RSA key is decoded when first used
+        try {
+            CertificateView certificate = CertificateView.wrap(serverCert.getPayload());
+            certificate.dhParameters().validate();
+            state.setServerCertificate(certificate);
+        } catch (IllegalArgumentException e) {
+            Log.error("{}", e.getMessage());
+            state.transitionTo(HandshakeState.State.ERROR);
+            return;
+        }
+        Log.info("Server certificate received");
         state.transitionTo(HandshakeState.State.SERVER_CERT_RECEIVED);
 
-        System.out.println(Colors.success("Server authenticated"));
+        Log.success("Server authenticated");
     }
 
 
      // Step 4: Send Client Key Exchange
+     // Returns null if the server's certificate or DH public key was rejected
     public TLSMessage sendClientKeyExchange() {
-        System.out.println("\n" + Colors.client("Sending CLIENT_KEY_EXCHANGE"));
+        Log.client("\nSending CLIENT_KEY_EXCHANGE");
 
         if (state.getDhParameters() == null) {
-            throw new IllegalStateException("DH parameters not received");
+            Log.error("No valid server certificate");
+            state.transitionTo(HandshakeState.State.ERROR);
+            return null;
         }
 
         // Initialize DH with server's parameters
         DiffieHellman.DHParameters dhParams = state.getDhParameters();
-        dhClient = new DiffieHellman(dhParams.p, dhParams.g);
+        BigInteger serverDHPublic = state.getServerDHPublic();
+        if (!DiffieHellman.isValidPublicKey(serverDHPublic, dhParams.p)) {
+            Log.error("Server DH public key out of range");
+            state.transitionTo(HandshakeState.State.ERROR);
+            return null;
+        }
+        dhClient = new DiffieHellman(dhParams);
 
         // Generate client's DH key pair
         dhClient.generatePrivateKey();
         BigInteger clientDHPublic = dhClient.computePublicKey();
         state.setClientDHPublic(clientDHPublic);
 
-        System.out.println(Colors.info("Client DH public key generated"));
+        Log.info("Client DH public key generated");
 
         // Compute shared secret
-        BigInteger sharedSecret = dhClient.computeSharedSecret(state.getServerDHPublic());
+        BigInteger sharedSecret = dhClient.computeSharedSecret(serverDHPublic);
         state.setSharedSecret(sharedSecret);
 
-        System.out.println(Colors.success("Shared secret computed: " +
-                sharedSecret.toString(16).substring(0, 32) + "..."));
+        Log.success("Shared secret computed: {}...", Log.lazy(() -> {
+            String hex = sharedSecret.toString(16);
+            return hex.length() > 32 ? hex.substring(0, 32) : hex;
+        }));
 
         // Derive session keys
-        byte[][] sessionKeys = KDF.deriveSessionKeys(sharedSecret);
-        state.setSessionKeys(sessionKeys[0], sessionKeys[1]);
+        state.deriveSessionKeys();
+        records = new RecordLayer(state, true);
 
-        System.out.println(Colors.success("Session keys derived"));
-        System.out.println(Colors.info("Encryption key: " +
-                ByteUtils.toHex(sessionKeys[0]).substring(0, 16) + "..."));
+        Log.success("Session keys derived ({})", KDF.getMode());
+        Log.info("Client write key: {}", state.getSessionKeys().clientWriteKey);
 
         state.transitionTo(HandshakeState.State.CLIENT_KEY_EXCHANGE_SENT);
 
@@ -127,26 +148,30 @@ public class TLSClient {
 
      // Step 5: Process Server Finished and send Client Finished
     public TLSMessage handleServerFinished(TLSMessage serverFinished) {
-        System.out.println("\n" + Colors.client("Received FINISHED from server"));
+        Log.client("\nReceived FINISHED from server");
 
         if (serverFinished.getType() != TLSMessage.MessageType.FINISHED) {
-            System.out.println(Colors.error("Expected FINISHED"));
+            Log.error("Expected FINISHED");
             state.transitionTo(HandshakeState.State.ERROR);
             return null;
         }
 
         // Decrypt server's finished message
-        byte[] decrypted = simpleDecrypt(
-                serverFinished.getPayload(),
-                state.getSessionEncryptionKey()
-        );
+        byte[] decrypted;
+        try {
+            decrypted = records.open(serverFinished);
+        } catch (RuntimeException e) {
+            Log.error("Bad FINISHED record: {}", e.getMessage());
+            state.transitionTo(HandshakeState.State.ERROR);
+            return null;
+        }
 
         String message = new String(decrypted, StandardCharsets.UTF_8);
-        System.out.println(Colors.info("Decrypted: " + message));
+        Log.info("Decrypted: {}", message);
 
         // Verify session ID
         if (!message.contains(state.getSessionId())) {
-            System.out.println(Colors.error("Session ID mismatch"));
+            Log.error("Session ID mismatch");
             state.transitionTo(HandshakeState.State.ERROR);
             return null;
         }
@@ -154,140 +179,87 @@ public class TLSClient {
         state.transitionTo(HandshakeState.State.FINISHED_RECEIVED);
 
         // Send client finished message
-        System.out.println(Colors.client("Sending FINISHED"));
+        Log.client("Sending FINISHED");
 
         String finishedMsg = "CLIENT_FINISHED:" + state.getSessionId();
-        byte[] encryptedFinished = simpleEncrypt(
-                finishedMsg.getBytes(StandardCharsets.UTF_8),
-                state.getSessionEncryptionKey()
+        TLSMessage finished = records.seal(
+                TLSMessage.MessageType.FINISHED,
+                finishedMsg.getBytes(StandardCharsets.UTF_8)
         );
 
         state.transitionTo(HandshakeState.State.HANDSHAKE_COMPLETE);
-        System.out.println(Colors.success("Handshake complete"));
+        Log.success("Handshake complete");
 
-        return new TLSMessage(
-                TLSMessage.MessageType.FINISHED,
-                encryptedFinished
-        );
+        return finished;
     }
 
 
-     // Send encrypted application data
+     // Send encrypted application data as a single record (at most RecordLayer.MAX_FRAGMENT bytes)
     public TLSMessage sendData(String plaintext) {
         if (!state.isHandshakeComplete()) {
             throw new IllegalStateException("Handshake not complete");
         }
 
-        byte[] encrypted = simpleEncrypt(
-                plaintext.getBytes(StandardCharsets.UTF_8),
-                state.getSessionEncryptionKey()
-        );
-
-        return new TLSMessage(
+        return records.seal(
                 TLSMessage.MessageType.APPLICATION_DATA,
-                encrypted
+                plaintext.getBytes(StandardCharsets.UTF_8)
         );
     }
 
 
-     // Receive and decrypt application data
-    public String receiveData(TLSMessage message) {
+     // Send encrypted application data of any size, passing each record to sink as it is sealed
+    public void sendData(ByteBuffer data, Consumer<TLSMessage> sink) {
         if (!state.isHandshakeComplete()) {
             throw new IllegalStateException("Handshake not complete");
         }
 
-        if (message.getType() != TLSMessage.MessageType.APPLICATION_DATA) {
-            throw new IllegalArgumentException("Expected APPLICATION_DATA");
-        }
+        records.write(TLSMessage.MessageType.APPLICATION_DATA, data, sink);
+    }
 
-        byte[] decrypted = simpleDecrypt(
-                message.getPayload(),
-                state.getSessionEncryptionKey()
-        );
 
-        return new String(decrypted, StandardCharsets.UTF_8);
+    public void sendData(byte[] data, Consumer<TLSMessage> sink) {
+        sendData(ByteBuffer.wrap(data), sink);
     }
 
 
-    // Parse server certificate to extract credentials
-    private void parseCertificate(byte[] certData) {
-        int offset = 0;
-
-        // Parse RSA public key (e)
-        int eLen = bytesToInt(certData, offset);
-        offset += 4;
-        byte[] eBytes = new byte[eLen];
-        System.arraycopy(certData, offset, eBytes, 0, eLen);
-        offset += eLen;
-        BigInteger e = new BigInteger(eBytes);
-
-        // Parse RSA public key (n)
-        int nLen = bytesToInt(certData, offset);
-        offset += 4;
-        byte[] nBytes = new byte[nLen];
-        System.arraycopy(certData, offset, nBytes, 0, nLen);
-        offset += nLen;
-        BigInteger n = new BigInteger(nBytes);
-
-        RSA.PublicKey serverPublicKey = new RSA.PublicKey(e, n);
-        state.setServerPublicKey(serverPublicKey);
-
-        System.out.println(Colors.info("Server RSA public key received"));
-
-        // Parse DH parameters (p)
-        int pLen = bytesToInt(certData, offset);
-        offset += 4;
-        byte[] pBytes = new byte[pLen];
-        System.arraycopy(certData, offset, pBytes, 0, pLen);
-        offset += pLen;
-        BigInteger p = new BigInteger(pBytes);
-
-        // Parse DH parameters (g)
-        int gLen = bytesToInt(certData, offset);
-        offset += 4;
-        byte[] gBytes = new byte[gLen];
-        System.arraycopy(certData, offset, gBytes, 0, gLen);
-        offset += gLen;
-        BigInteger g = new BigInteger(gBytes);
-
-        DiffieHellman.DHParameters dhParams = new DiffieHellman.DHParameters(p, g);
-        state.setDhParameters(dhParams);
-
-        System.out.println(Colors.info("DH parameters received"));
-
-        // Parse server's DH public key
-        int serverDHLen = bytesToInt(certData, offset);
-        offset += 4;
-        byte[] serverDHBytes = new byte[serverDHLen];
-        System.arraycopy(certData, offset, serverDHBytes, 0, serverDHLen);
-        BigInteger serverDHPublic = new BigInteger(serverDHBytes);
-
-        state.setServerDHPublic(serverDHPublic);
-        System.out.println(Colors.info("Server DH public key received"));
+     // Zero-copy send: seal src into dst as records without allocating
+     // dst needs RecordLayer.sealedLength(src.remaining()) bytes; returns the record count
+    public int sendData(ByteBuffer src, ByteBuffer dst) {
+        if (!state.isHandshakeComplete()) {
+            throw new IllegalStateException("Handshake not complete");
+        }
+
+        return records.write(src, dst);
     }
 
 
-    // XOR-based encryption
-    private byte[] simpleEncrypt(byte[] plaintext, byte[] key) {
-        byte[] result = new byte[plaintext.length];
-        for (int i = 0; i < plaintext.length; i++) {
-            result[i] = (byte) (plaintext[i] ^ key[i % key.length]);
+     // Zero-copy receive: open the record at src's position into dst without allocating
+     // Returns the plaintext length, or -1 if src does not yet hold a whole record
+    public int receiveData(ByteBuffer src, ByteBuffer dst) {
+        if (!state.isHandshakeComplete()) {
+            throw new IllegalStateException("Handshake not complete");
         }
-        return result;
+
+        return records.read(src, dst);
     }
 
 
-    // XOR-based decryption
-    private byte[] simpleDecrypt(byte[] ciphertext, byte[] key) {
-        return simpleEncrypt(ciphertext, key); // XOR is symmetric
+     // Receive and decrypt one application data record
+    public byte[] receiveRecord(TLSMessage message) {
+        if (!state.isHandshakeComplete()) {
+            throw new IllegalStateException("Handshake not complete");
+        }
+
+        if (message.getType() != TLSMessage.MessageType.APPLICATION_DATA) {
+            throw new IllegalArgumentException("Expected APPLICATION_DATA");
+        }
+
+        return records.open(message);
     }
 
 
-    // Convert byte array to int
-    private int bytesToInt(byte[] bytes, int offset) {
-        return ((bytes[offset] & 0xFF) << 24) |
-                ((bytes[offset + 1] & 0xFF) << 16) |
-                ((bytes[offset + 2] & 0xFF) << 8) |
-                (bytes[offset + 3] & 0xFF);
+     // Receive and decrypt application data
+    public String receiveData(TLSMessage message) {
+        return new String(receiveRecord(message), StandardCharsets.UTF_8);
     }
-}
\ No newline at end of file
+}
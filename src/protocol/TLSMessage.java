@@ -5,6 +5,8 @@ import java.io.Serializable;
 
 
 // TLS Message Format it represents different message types in the TLS handshake
+// On the wire messages go through MessageCodec; Serializable is kept only so the
+// codec can be benchmarked against Java serialization
 public class TLSMessage implements Serializable {
 
      private static final long serialVersionUID = 1L;
@@ -23,23 +25,25 @@ public class TLSMessage implements Serializable {
     private final MessageType type;
     private final byte[] payload;
     private final String textData;
+    private final String sessionId;   // Set on SERVER_HELLO
 
     public TLSMessage(MessageType type, byte[] payload) {
-        this.type = type;
-        this.payload = payload;
-        this.textData = null;
+        this(type, payload, null, null);
     }
 
     public TLSMessage(MessageType type, String textData) {
-        this.type = type;
-        this.textData = textData;
-        this.payload = null;
+        this(type, null, textData, null);
     }
 
     public TLSMessage(MessageType type, byte[] payload, String textData) {
+        this(type, payload, textData, null);
+    }
+
+    public TLSMessage(MessageType type, byte[] payload, String textData, String sessionId) {
         this.type = type;
         this.payload = payload;
         this.textData = textData;
+        this.sessionId = sessionId;
     }
 
     // Getters
@@ -55,6 +59,10 @@ public class TLSMessage implements Serializable {
         return textData;
     }
 
+    public String getSessionId() {
+        return sessionId;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -69,6 +77,10 @@ public class TLSMessage implements Serializable {
             sb.append(", text='").append(textData).append("'");
         }
 
+        if (sessionId != null) {
+            sb.append(", sessionId=").append(sessionId);
+        }
+
         sb.append("}");
         return sb.toString();
     }
@@ -1,85 +1,129 @@
 package protocol;
 
-import crypto.RSA;
 import crypto.DiffieHellman;
+import crypto.DHParameterPool;
 import crypto.KDF;
 import utils.ByteUtils;
-import utils.Colors;
+import utils.Log;
+import utils.Entropy;
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.UUID;
+import java.util.function.Consumer;
 
 
 // TLS Server Implementation which handles server-side TLS handshake and encrypted communication
+// One TLSServer is one connection. The keys and DH pool live in a ServerContext that
+// any number of sessions share; new TLSServer() + initialize() still sets one up on its own.
 public class TLSServer {
 
     private final HandshakeState state;
+    private final DHParameterPool.Fallback dhFallback;  // For initialize(); null on a shared context
+    private ServerContext context;
+    private boolean ownsContext;  // Created by initialize(), so shutdown() stops it
     private DiffieHellman dhServer;
-    private final SecureRandom random;
+    private RecordLayer records;
 
     public TLSServer() {
+        this(DHParameterPool.Fallback.NAMED_GROUP);
+    }
+
+     // dhFallback decides what a handshake does when no pooled DH parameters are ready
+    public TLSServer(DHParameterPool.Fallback dhFallback) {
+        this.state = new HandshakeState();
+        this.dhFallback = dhFallback;
+    }
+
+     // Session on a shared context, ready for handshakes without initialize()
+     // Only the per-handshake state is allocated; the context's pool has its own fallback
+    public TLSServer(ServerContext context) {
         this.state = new HandshakeState();
-        this.random = new SecureRandom();
+        this.dhFallback = null;
+        this.context = context;
+        state.setServerKeyPair(context.getKeyPair());
     }
 
 
-    // Initialize server with RSA keys
+    // Initialize server with RSA keys and a context of its own
     public void initialize() {
-        System.out.println("\n" + Colors.server("Initializing server..."));
+        if (context != null) {
+            throw new IllegalStateException("Server is already initialized");
+        }
+        Log.server("\nInitializing server...");
+
+        context = ServerContext.load(dhFallback);
+        ownsContext = true;
+        state.setServerKeyPair(context.getKeyPair());
+
+        Log.success("Server initialized with RSA keys");
+    }
 
-        // Generate RSA key pair for authentication
-        RSA.KeyPair rsaKeys = RSA.generateKeyPair(2048);
-        state.setServerKeyPair(rsaKeys);
 
-        System.out.println(Colors.success("Server initialized with RSA keys"));
+    public ServerContext getContext() {
+        return context;
+    }
+
+
+    // Persist unused DH parameters for the next start and stop background workers
+    // A session on a shared context leaves it running for the others.
+    public void shutdown() {
+        if (context != null && ownsContext) {
+            context.shutdown();
+        }
     }
 
 
     // Step 2: Process Client Hello and send Server Hello
     public TLSMessage[] handleClientHello(TLSMessage clientHello) {
-        System.out.println("\n" + Colors.server("Received CLIENT_HELLO"));
+        Log.server("\nReceived CLIENT_HELLO");
 
         if (clientHello.getType() != TLSMessage.MessageType.CLIENT_HELLO) {
-            System.out.println(Colors.error("Expected CLIENT_HELLO"));
+            Log.error("Expected CLIENT_HELLO");
             state.transitionTo(HandshakeState.State.ERROR);
             return null;
         }
+        if (!inState(HandshakeState.State.IDLE, clientHello)) {
+            return null;
+        }
 
         // Extract client random
         state.setClientRandom(clientHello.getPayload());
-        System.out.println(Colors.info("Client random: " +
-                ByteUtils.toHex(state.getClientRandom()).substring(0, 16) + "..."));
+        Log.info("Client random: {}", state.getClientRandom());
 
         state.transitionTo(HandshakeState.State.SERVER_HELLO_RECEIVED);
 
         // Generate server random
         byte[] serverRandom = new byte[32];
-        random.nextBytes(serverRandom);
+        Entropy.fill(serverRandom);
         state.setServerRandom(serverRandom);
 
-        // Generate session ID
-        String sessionId = UUID.randomUUID().toString().substring(0, 8);
+        // Generate session ID (8 hex digits, from the per-thread source rather than UUID's shared one)
+        byte[] sessionIdBytes = new byte[4];
+        Entropy.fill(sessionIdBytes);
+        String sessionId = ByteUtils.toHex(sessionIdBytes);
         state.setSessionId(sessionId);
 
-        // Generate DH parameters
-        DiffieHellman.DHParameters dhParams = DiffieHellman.generateParameters(2048);
+        // Take pre-generated DH parameters from the pool
+        DHParameterPool dhPool = context.getDhPool();
+        DiffieHellman.DHParameters dhParams = dhPool.take();
         state.setDhParameters(dhParams);
+        Log.info("DH parameters ready ({} left in pool)", dhPool.size());
 
         // Initialize DH for server
-        dhServer = new DiffieHellman(dhParams.p, dhParams.g);
+        dhServer = new DiffieHellman(dhParams);
         dhServer.generatePrivateKey();
         BigInteger serverDHPublic = dhServer.computePublicKey();
         state.setServerDHPublic(serverDHPublic);
 
-        System.out.println(Colors.server("Sending SERVER_HELLO + SERVER_CERTIFICATE"));
+        Log.server("Sending SERVER_HELLO + SERVER_CERTIFICATE");
 
         // Create SERVER_HELLO message
         TLSMessage serverHello = new TLSMessage(
                 TLSMessage.MessageType.SERVER_HELLO,
                 serverRandom,
-                "SessionID: " + sessionId
+                null,
+                sessionId
         );
 
         // Create SERVER_CERTIFICATE message
@@ -96,86 +140,101 @@ public class TLSServer {
 
     // Step 4: Process Client Key Exchange and send Finished
     public TLSMessage handleClientKeyExchange(TLSMessage clientKeyExchange) {
-        System.out.println("\n" + Colors.server("Received CLIENT_KEY_EXCHANGE"));
+        Log.server("\nReceived CLIENT_KEY_EXCHANGE");
 
         if (clientKeyExchange.getType() != TLSMessage.MessageType.CLIENT_KEY_EXCHANGE) {
-            System.out.println(Colors.error("Expected CLIENT_KEY_EXCHANGE"));
+            Log.error("Expected CLIENT_KEY_EXCHANGE");
             state.transitionTo(HandshakeState.State.ERROR);
             return null;
         }
+        if (!inState(HandshakeState.State.SERVER_HELLO_RECEIVED, clientKeyExchange)) {
+            return null;
+        }
 
         // Parse client's DH public key (first part of payload)
         byte[] payload = clientKeyExchange.getPayload();
         BigInteger clientDHPublic = new BigInteger(payload);
+        if (!DiffieHellman.isValidPublicKey(clientDHPublic, dhServer.getP())) {
+            Log.error("Client DH public key out of range");
+            state.transitionTo(HandshakeState.State.ERROR);
+            return null;
+        }
         state.setClientDHPublic(clientDHPublic);
 
-        System.out.println(Colors.info("Client DH public key received"));
+        Log.info("Client DH public key received");
 
         // Compute shared secret
         BigInteger sharedSecret = dhServer.computeSharedSecret(clientDHPublic);
         state.setSharedSecret(sharedSecret);
 
-        System.out.println(Colors.success("Shared secret computed: " +
-                sharedSecret.toString(16).substring(0, 32) + "..."));
+        Log.success("Shared secret computed: {}...", Log.lazy(() -> {
+            String hex = sharedSecret.toString(16);
+            return hex.length() > 32 ? hex.substring(0, 32) : hex;
+        }));
 
         // Derive session keys
-        byte[][] sessionKeys = KDF.deriveSessionKeys(sharedSecret);
-        state.setSessionKeys(sessionKeys[0], sessionKeys[1]);
+        state.deriveSessionKeys();
+        records = new RecordLayer(state, false);
 
-        System.out.println(Colors.success("Session keys derived"));
-        System.out.println(Colors.info("Encryption key: " +
-                ByteUtils.toHex(sessionKeys[0]).substring(0, 16) + "..."));
+        Log.success("Session keys derived ({})", KDF.getMode());
+        Log.info("Client write key: {}", state.getSessionKeys().clientWriteKey);
 
         state.transitionTo(HandshakeState.State.FINISHED_SENT);
 
         // Send FINISHED message
-        System.out.println(Colors.server("Sending FINISHED"));
+        Log.server("Sending FINISHED");
 
         String finishedMsg = "SERVER_FINISHED:" + state.getSessionId();
-        byte[] encryptedFinished = simpleEncrypt(
-                finishedMsg.getBytes(StandardCharsets.UTF_8),
-                state.getSessionEncryptionKey()
-        );
-
-        return new TLSMessage(
+        TLSMessage finished = records.seal(
                 TLSMessage.MessageType.FINISHED,
-                encryptedFinished
+                finishedMsg.getBytes(StandardCharsets.UTF_8)
         );
+
+        return finished;
     }
 
 
     // Step 6: Process Client Finished message
     public boolean handleClientFinished(TLSMessage clientFinished) {
-        System.out.println("\n" + Colors.server("Received FINISHED from client"));
+        Log.server("\nReceived FINISHED from client");
 
         if (clientFinished.getType() != TLSMessage.MessageType.FINISHED) {
-            System.out.println(Colors.error("Expected FINISHED"));
+            Log.error("Expected FINISHED");
+            state.transitionTo(HandshakeState.State.ERROR);
+            return false;
+        }
+        if (!inState(HandshakeState.State.FINISHED_SENT, clientFinished)) {
             return false;
         }
 
         // Decrypt finished message
-        byte[] decrypted = simpleDecrypt(
-                clientFinished.getPayload(),
-                state.getSessionEncryptionKey()
-        );
+        byte[] decrypted;
+        try {
+            decrypted = records.open(clientFinished);
+        } catch (RuntimeException e) {
+            Log.error("Bad FINISHED record: {}", e.getMessage());
+            state.transitionTo(HandshakeState.State.ERROR);
+            return false;
+        }
 
         String message = new String(decrypted, StandardCharsets.UTF_8);
-        System.out.println(Colors.info("Decrypted: " + message));
+        Log.info("Decrypted: {}", message);
 
         // Verify session ID
         if (message.contains(state.getSessionId())) {
             state.transitionTo(HandshakeState.State.HANDSHAKE_COMPLETE);
-            System.out.println(Colors.success("Handshake complete"));
+            Log.success("Handshake complete");
             return true;
         }
 
-        System.out.println(Colors.error("Session ID mismatch"));
+        Log.error("Session ID mismatch");
+        state.transitionTo(HandshakeState.State.ERROR);
         return false;
     }
 
 
-    // Receive and decrypt application data
-    public String receiveData(TLSMessage message) {
+    // Receive and decrypt one application data record
+    public byte[] receiveRecord(TLSMessage message) {
         if (!state.isHandshakeComplete()) {
             throw new IllegalStateException("Handshake not complete");
         }
@@ -184,79 +243,104 @@ public class TLSServer {
             throw new IllegalArgumentException("Expected APPLICATION_DATA");
         }
 
-        byte[] decrypted = simpleDecrypt(
-                message.getPayload(),
-                state.getSessionEncryptionKey()
-        );
+        return records.open(message);
+    }
+
 
-        return new String(decrypted, StandardCharsets.UTF_8);
+    // Receive and decrypt application data
+    public String receiveData(TLSMessage message) {
+        return new String(receiveRecord(message), StandardCharsets.UTF_8);
     }
 
 
-    // Encrypt and send application data
+    // Encrypt and send application data as a single record (at most RecordLayer.MAX_FRAGMENT bytes)
     public TLSMessage sendData(String plaintext) {
         if (!state.isHandshakeComplete()) {
             throw new IllegalStateException("Handshake not complete");
         }
 
-        byte[] encrypted = simpleEncrypt(
-                plaintext.getBytes(StandardCharsets.UTF_8),
-                state.getSessionEncryptionKey()
-        );
-
-        return new TLSMessage(
+        return records.seal(
                 TLSMessage.MessageType.APPLICATION_DATA,
-                encrypted
+                plaintext.getBytes(StandardCharsets.UTF_8)
         );
     }
 
 
-    // Create certificate data containing server credentials
-    private byte[] createCertificateData() {
-        RSA.KeyPair keys = state.getServerKeyPair();
-        DiffieHellman.DHParameters dhParams = state.getDhParameters();
+    // Encrypt application data of any size, passing each record to sink as it is sealed
+    public void sendData(ByteBuffer data, Consumer<TLSMessage> sink) {
+        if (!state.isHandshakeComplete()) {
+            throw new IllegalStateException("Handshake not complete");
+        }
 
-        // Format: [RSA_e][RSA_n][DH_p][DH_g][Server_DH_public]
-        byte[] rsaE = keys.publicKey.e.toByteArray();
-        byte[] rsaN = keys.publicKey.n.toByteArray();
-        byte[] dhP = dhParams.p.toByteArray();
-        byte[] dhG = dhParams.g.toByteArray();
-        byte[] serverDH = state.getServerDHPublic().toByteArray();
+        records.write(TLSMessage.MessageType.APPLICATION_DATA, data, sink);
+    }
 
-        // Create length-prefixed format
-        return ByteUtils.concat(
-                intToBytes(rsaE.length), rsaE,
-                intToBytes(rsaN.length), rsaN,
-                intToBytes(dhP.length), dhP,
-                intToBytes(dhG.length), dhG,
-                intToBytes(serverDH.length), serverDH
-        );
+
+    public void sendData(byte[] data, Consumer<TLSMessage> sink) {
+        sendData(ByteBuffer.wrap(data), sink);
     }
 
 
-    // XOR-based encryption
-    private byte[] simpleEncrypt(byte[] plaintext, byte[] key) {
-        byte[] result = new byte[plaintext.length];
-        for (int i = 0; i < plaintext.length; i++) {
-            result[i] = (byte) (plaintext[i] ^ key[i % key.length]);
+    // Zero-copy send: seal src into dst as records without allocating
+    // dst needs RecordLayer.sealedLength(src.remaining()) bytes; returns the record count
+    public int sendData(ByteBuffer src, ByteBuffer dst) {
+        if (!state.isHandshakeComplete()) {
+            throw new IllegalStateException("Handshake not complete");
         }
-        return result;
+
+        return records.write(src, dst);
     }
 
 
-    // XOR-based decryption
-    private byte[] simpleDecrypt(byte[] ciphertext, byte[] key) {
-        return simpleEncrypt(ciphertext, key); // XOR is symmetric
+    // Zero-copy receive: open the record at src's position into dst without allocating
+    // Returns the plaintext length, or -1 if src does not yet hold a whole record
+    public int receiveData(ByteBuffer src, ByteBuffer dst) {
+        if (!state.isHandshakeComplete()) {
+            throw new IllegalStateException("Handshake not complete");
+        }
+
+        return records.read(src, dst);
+    }
+
+
+    // Each handshake message is accepted once, in order. Anything else (a repeated
+    // CLIENT_HELLO draining the DH pool, a CLIENT_KEY_EXCHANGE that would re-key an
+    // established session) ends the session in ERROR, which refuses every later step.
+    private boolean inState(HandshakeState.State expected, TLSMessage message) {
+        if (state.getState() == expected) {
+            return true;
+        }
+        Log.error("Unexpected {} in state {}", message.getType(), state.getState());
+        state.transitionTo(HandshakeState.State.ERROR);
+        return false;
+    }
+
+
+    // Create certificate data containing server credentials
+    // Format: [RSA_e][RSA_n][DH_p][DH_g][Server_DH_public], each length-prefixed.
+    // The RSA part is the context's template and the DH parameters keep
+    // their own encoding, so only the DH public value is encoded per handshake.
+    private byte[] createCertificateData() {
+        DiffieHellman.DHParameters dhParams = state.getDhParameters();
+        byte[] serverDH = state.getServerDHPublic().toByteArray();
+
+        int prefixLength = context.certificatePrefixLength();
+        byte[] cert = new byte[prefixLength + dhParams.encodedLength() + 4 + serverDH.length];
+        context.writeCertificatePrefix(cert);
+        int offset = prefixLength;
+        dhParams.writeEncoded(cert, offset);
+        offset += dhParams.encodedLength();
+        writeInt(cert, offset, serverDH.length);
+        System.arraycopy(serverDH, 0, cert, offset + 4, serverDH.length);
+        return cert;
     }
 
 
-    // Convert int to 4-byte array
-    private byte[] intToBytes(int value) {
-        return new byte[] {
-                (byte) (value >> 24),
-                (byte) (value >> 16),
-                (byte) (value >> 8),
-                (byte) value
-        };
+    // Write int as 4 big-endian bytes
+    static void writeInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >> 24);
+        dst[offset + 1] = (byte) (value >> 16);
+        dst[offset + 2] = (byte) (value >> 8);
+        dst[offset + 3] = (byte) value;
     }
-}
\ No newline at end of file
+}
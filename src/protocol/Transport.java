@@ -0,0 +1,16 @@
+package protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+ // Carries TLSMessages between the two ends of a connection
+ // A null message is the close signal: sending null tells the peer we are done,
+ // and receive() returns null once the peer has sent it or hung up.
+public interface Transport extends Closeable {
+
+     // Send a message, or null to signal close
+    void send(TLSMessage message) throws IOException;
+
+     // Block until the next message arrives; null when the peer has closed
+    TLSMessage receive() throws IOException;
+}
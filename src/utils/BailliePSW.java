@@ -0,0 +1,182 @@
+package utils;
+
+import java.math.BigInteger;
+
+ // Baillie-PSW probable-prime test
+ // A strong base-2 Miller-Rabin round followed by a strong Lucas test with
+ // Selfridge parameters (P = 1, Q = (1 - D) / 4). No composite is known to pass
+ // both, and the whole test costs about as much as three Miller-Rabin rounds.
+public class BailliePSW {
+
+    private static final int[] SMALL_PRIMES = {
+            2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89, 97
+    };
+    private static final BigInteger TRIAL_LIMIT = BigInteger.valueOf(97 * 97);
+
+    public static boolean isProbablePrime(BigInteger n) {
+        if (n.compareTo(BigInteger.valueOf(2)) < 0) {
+            return false;
+        }
+
+        // Trial division settles every n below 97^2 and keeps the Lucas setup simple
+        for (int p : SMALL_PRIMES) {
+            if (n.equals(BigInteger.valueOf(p))) {
+                return true;
+            }
+            if (n.mod(BigInteger.valueOf(p)).signum() == 0) {
+                return false;
+            }
+        }
+        if (n.compareTo(TRIAL_LIMIT) < 0) {
+            return true;
+        }
+
+        MontgomeryContext context = new MontgomeryContext(n);
+
+        // Strong base-2 test
+        BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        int r = nMinusOne.getLowestSetBit();
+        if (!MathUtils.isStrongProbablePrime(BigInteger.valueOf(2), nMinusOne.shiftRight(r), r, context)) {
+            return false;
+        }
+
+        // Selfridge: first D in 5, -7, 9, -11, ... with Jacobi(D/n) = -1
+        int d = 5;
+        while (true) {
+            int j = jacobi(d, n);
+            if (j == -1) {
+                break;
+            }
+            if (j == 0) {
+                // |D| shares a factor with n (and n > |D| after trial division)
+                return false;
+            }
+            if (d == 13 && isPerfectSquare(n)) {
+                // Squares never yield -1, so rule them out before searching further
+                return false;
+            }
+            d = d > 0 ? -(d + 2) : -(d - 2);
+        }
+
+        return isStrongLucasProbablePrime(n, d, context);
+    }
+
+
+     // Strong Lucas test with P = 1, Q = (1 - D) / 4, all arithmetic in Montgomery form
+    private static boolean isStrongLucasProbablePrime(BigInteger n, int d, MontgomeryContext context) {
+        // n + 1 = 2^s * k with k odd
+        BigInteger nPlusOne = n.add(BigInteger.ONE);
+        int s = nPlusOne.getLowestSetBit();
+        BigInteger k = nPlusOne.shiftRight(s);
+
+        int[] dMont = context.toMontgomery(BigInteger.valueOf(d));
+        int[] q = context.toMontgomery(BigInteger.valueOf((1 - d) / 4));
+
+        // Start at index 1: U_1 = 1, V_1 = P = 1, Q^1 = Q
+        int[] u = context.newElement();
+        int[] v = context.newElement();
+        int[] qk = q.clone();
+        int[] tmp = context.newElement();
+        context.setOne(u);
+        context.setOne(v);
+
+        for (int i = k.bitLength() - 2; i >= 0; i--) {
+            // Double the index: U_2m = U_m V_m, V_2m = V_m^2 - 2 Q^m
+            context.multiply(u, v, u);
+            context.multiply(v, v, v);
+            context.subtract(v, qk, v);
+            context.subtract(v, qk, v);
+            context.multiply(qk, qk, qk);
+
+            if (k.testBit(i)) {
+                // Step the index by one: U_m+1 = (U_m + V_m) / 2, V_m+1 = (D U_m + V_m) / 2
+                context.multiply(dMont, u, tmp);
+                context.add(u, v, u);
+                context.halve(u);
+                context.add(tmp, v, v);
+                context.halve(v);
+                context.multiply(qk, q, qk);
+            }
+        }
+
+        if (context.isZero(u) || context.isZero(v)) {
+            return true;
+        }
+
+        for (int r = 1; r < s; r++) {
+            context.multiply(v, v, v);
+            context.subtract(v, qk, v);
+            context.subtract(v, qk, v);
+            if (context.isZero(v)) {
+                return true;
+            }
+            context.multiply(qk, qk, qk);
+        }
+
+        return false;
+    }
+
+
+     // Jacobi symbol (a/n) for small a and odd n
+    static int jacobi(int a, BigInteger n) {
+        int nMod8 = n.intValue() & 7;
+        int result = 1;
+
+        if (a < 0) {
+            a = -a;
+            if ((nMod8 & 3) == 3) {
+                result = -result;
+            }
+        }
+        while ((a & 1) == 0) {
+            a >>= 1;
+            if (nMod8 == 3 || nMod8 == 5) {
+                result = -result;
+            }
+        }
+        if (a == 1) {
+            return result;
+        }
+
+        // Quadratic reciprocity brings n down to a machine-sized value
+        if ((a & 3) == 3 && (nMod8 & 3) == 3) {
+            result = -result;
+        }
+        return result * jacobi(n.mod(BigInteger.valueOf(a)).longValue(), a);
+    }
+
+
+    private static int jacobi(long a, long n) {
+        int result = 1;
+        while (a != 0) {
+            while ((a & 1) == 0) {
+                a >>= 1;
+                long r = n & 7;
+                if (r == 3 || r == 5) {
+                    result = -result;
+                }
+            }
+            long t = a;
+            a = n;
+            n = t;
+            if ((a & 3) == 3 && (n & 3) == 3) {
+                result = -result;
+            }
+            a %= n;
+        }
+        return n == 1 ? result : 0;
+    }
+
+
+     // Integer square root by Newton iteration
+    private static boolean isPerfectSquare(BigInteger n) {
+        BigInteger x = BigInteger.ONE.shiftLeft((n.bitLength() + 1) / 2);
+        while (true) {
+            BigInteger y = x.add(n.divide(x)).shiftRight(1);
+            if (y.compareTo(x) >= 0) {
+                return x.multiply(x).equals(n);
+            }
+            x = y;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package utils;
+
+import java.math.BigInteger;
+
+ // Modular inverse by binary extended GCD
+ // Works on little-endian int limb arrays updated in place: every step is a
+ // shift, an add or a subtract, with no division and no per-iteration allocation.
+public class BinaryGcd {
+
+    private static final long MASK = 0xFFFFFFFFL;
+
+     // a^-1 mod m, throws ArithmeticException if gcd(a, m) != 1
+    public static BigInteger modInverse(BigInteger a, BigInteger m) {
+        if (m.signum() <= 0) {
+            throw new ArithmeticException("Modulus must be positive");
+        }
+        a = a.mod(m);
+
+        if (m.testBit(0)) {
+            return modInverseOdd(a, m);
+        }
+
+        // Even modulus (e.g. phi(n)): a must be odd, so invert m modulo a instead.
+        // From a*x + m*y = 1 with y = m^-1 mod a, x = (1 - m*y) / a exactly.
+        if (!a.testBit(0)) {
+            throw new ArithmeticException("Not invertible: both even");
+        }
+        if (a.equals(BigInteger.ONE)) {
+            return BigInteger.ONE;
+        }
+        BigInteger y = modInverseOdd(m.mod(a), a);
+        return BigInteger.ONE.subtract(m.multiply(y)).divide(a).mod(m);
+    }
+
+
+     // a^-1 mod m for odd m and 0 <= a < m
+    private static BigInteger modInverseOdd(BigInteger a, BigInteger m) {
+        if (a.signum() == 0) {
+            throw new ArithmeticException("Not invertible: zero");
+        }
+
+        int len = (m.bitLength() + 31) >>> 5;
+        int[] mod = MontgomeryContext.toLimbs(m, len);
+        int[] u = MontgomeryContext.toLimbs(a, len);
+        int[] v = mod.clone();
+        int[] x1 = new int[len];
+        int[] x2 = new int[len];
+        x1[0] = 1;
+
+        // Invariants: x1 * a = u (mod m), x2 * a = v (mod m)
+        while (!isOne(u) && !isOne(v)) {
+            while ((u[0] & 1) == 0) {
+                shiftRight(u);
+                halve(x1, mod);
+            }
+            while ((v[0] & 1) == 0) {
+                shiftRight(v);
+                halve(x2, mod);
+            }
+
+            if (compare(u, v) >= 0) {
+                subtract(u, v);
+                subtractMod(x1, x2, mod);
+                if (isZero(u)) {
+                    throw new ArithmeticException("Not invertible: gcd > 1");
+                }
+            } else {
+                subtract(v, u);
+                subtractMod(x2, x1, mod);
+            }
+        }
+
+        return MontgomeryContext.fromLimbs(isOne(u) ? x1 : x2);
+    }
+
+
+    private static boolean isOne(int[] a) {
+        if (a[0] != 1) {
+            return false;
+        }
+        return isZeroFrom(a, 1);
+    }
+
+    private static boolean isZero(int[] a) {
+        return isZeroFrom(a, 0);
+    }
+
+    private static boolean isZeroFrom(int[] a, int start) {
+        for (int i = start; i < a.length; i++) {
+            if (a[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static int compare(int[] a, int[] b) {
+        for (int i = a.length - 1; i >= 0; i--) {
+            if (a[i] != b[i]) {
+                return Integer.compareUnsigned(a[i], b[i]);
+            }
+        }
+        return 0;
+    }
+
+
+     // a = a >> 1
+    private static void shiftRight(int[] a) {
+        for (int i = 0; i < a.length - 1; i++) {
+            a[i] = (a[i] >>> 1) | (a[i + 1] << 31);
+        }
+        a[a.length - 1] >>>= 1;
+    }
+
+
+     // a = a - b (requires a >= b)
+    private static void subtract(int[] a, int[] b) {
+        long borrow = 0;
+        for (int i = 0; i < a.length; i++) {
+            long d = (a[i] & MASK) - (b[i] & MASK) - borrow;
+            a[i] = (int) d;
+            borrow = d >>> 63;
+        }
+    }
+
+
+     // a = a - b mod m
+    private static void subtractMod(int[] a, int[] b, int[] m) {
+        long borrow = 0;
+        for (int i = 0; i < a.length; i++) {
+            long d = (a[i] & MASK) - (b[i] & MASK) - borrow;
+            a[i] = (int) d;
+            borrow = d >>> 63;
+        }
+        if (borrow != 0) {
+            long carry = 0;
+            for (int i = 0; i < a.length; i++) {
+                long s = (a[i] & MASK) + (m[i] & MASK) + carry;
+                a[i] = (int) s;
+                carry = s >>> 32;
+            }
+        }
+    }
+
+
+     // a = a / 2 mod m (m odd: add m first when a is odd)
+    private static void halve(int[] a, int[] m) {
+        long carry = 0;
+        if ((a[0] & 1) != 0) {
+            for (int i = 0; i < a.length; i++) {
+                long s = (a[i] & MASK) + (m[i] & MASK) + carry;
+                a[i] = (int) s;
+                carry = s >>> 32;
+            }
+        }
+        shiftRight(a);
+        a[a.length - 1] |= (int) carry << 31;
+    }
+}
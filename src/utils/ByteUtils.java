@@ -2,16 +2,27 @@ package utils;
 
 public class ByteUtils {
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
-    // Convert byte array to hex string
+
+    // Convert byte array to hex string (table lookup, no per-byte formatting)
     public static String toHex(byte[] bytes) {
         if (bytes == null) return "null";
 
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+
+    // Append bytes[offset..offset+length) as hex
+    public static void appendHex(StringBuilder sb, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            sb.append(HEX[(bytes[i] >> 4) & 0xF]).append(HEX[bytes[i] & 0xF]);
         }
-        return sb.toString();
     }
 
 
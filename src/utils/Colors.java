@@ -6,6 +6,7 @@ public class Colors {
     public static final String BLUE = "\033[0;34m";
     public static final String MAGENTA = "\033[0;35m";
     public static final String CYAN = "\033[0;36m";
+    public static final String YELLOW = "\033[0;33m";
 
     // Bold colors
     public static final String BOLD_GREEN = "\033[1;32m";
@@ -25,6 +26,10 @@ public class Colors {
         return BOLD_GREEN + "Success " + msg + RESET;
     }
 
+    public static String warning(String msg) {
+        return YELLOW + "Warning " + msg + RESET;
+    }
+
     public static String error(String msg) {
         return BOLD_RED + "Got Error " + msg + RESET;
     }
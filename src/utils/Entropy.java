@@ -0,0 +1,280 @@
+package utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SecureRandomParameters;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+ // Per-thread buffered entropy source
+ // Every platform thread gets its own DRBG plus a 4 KB buffer of pre-generated bytes,
+ // so concurrent handshakes never contend on a shared SecureRandom and small requests
+ // (nonces, private keys, Miller-Rabin bases) are served by a plain array copy.
+ // Virtual threads are created per connection, and a new DRBG seeds itself under the
+ // JDK's shared, synchronized seeder. So virtual threads share a small set of striped
+ // sources instead, picked by thread id, each guarded by a ReentrantLock.
+ // Consumed buffer bytes are zeroed so old randomness doesn't linger on the heap.
+public class Entropy extends SecureRandom {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final ThreadLocal<Entropy> LOCAL = new ThreadLocal<>();  // Not withInitial: release() must not create one
+
+    // Sources shared by virtual threads: a power of two, created on first use
+    private static final int STRIPES = Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+    private static final AtomicReferenceArray<Entropy> SHARED = new AtomicReferenceArray<>(STRIPES);
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();  // Thread::isVirtual, or null before JDK 21
+
+    private final SecureRandom drbg;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = BUFFER_SIZE;
+    private byte[] scratch = new byte[0];  // Reused by randomBelow across rejections
+    private final ReentrantLock lock = new ReentrantLock();  // Uncontended unless the source is a shared stripe
+
+    private Entropy(SecureRandom drbg) {
+        // Not super(): that would instantiate and seed a default PRNG that is never used
+        super(new DrbgSpi(drbg), drbg.getProvider());
+        this.drbg = drbg;
+    }
+
+
+     // The calling thread's source (usable wherever a Random is expected)
+    public static Entropy current() {
+        if (isVirtualThread()) {
+            return shared();
+        }
+
+        Entropy entropy = LOCAL.get();
+        if (entropy == null) {
+            entropy = new Entropy(newDrbg());
+            LOCAL.set(entropy);
+        }
+        return entropy;
+    }
+
+
+     // Discard the calling thread's source, e.g. once a connection thread has finished
+     // its handshake and may sit idle for a long time holding the buffer
+     // The next call on this thread simply creates a fresh one.
+     // Virtual threads use shared sources, so there is nothing to drop.
+    public static void release() {
+        if (isVirtualThread()) {
+            return;
+        }
+
+        Entropy entropy = LOCAL.get();
+        if (entropy == null) {
+            return;  // Nothing to drop on this thread
+        }
+        Arrays.fill(entropy.buffer, (byte) 0);
+        entropy.position = BUFFER_SIZE;
+        LOCAL.remove();
+    }
+
+
+     // Fill `bytes` from the calling thread's buffer
+    public static void fill(byte[] bytes) {
+        current().nextBytes(bytes);
+    }
+
+
+     // Uniform value with `bits` random bits, like new BigInteger(bits, random)
+    public static BigInteger randomBits(int bits) {
+        return new BigInteger(bits, current());
+    }
+
+
+     // Uniform value in [min, max]
+    public static BigInteger randomInRange(BigInteger min, BigInteger max) {
+        return current().randomBelow(max.subtract(min).add(BigInteger.ONE)).add(min);
+    }
+
+
+     // Uniform value in [0, bound) by rejection sampling
+     // Candidates are drawn into a reused byte array and compared against the bound
+     // byte-wise, so a rejected draw allocates nothing
+    public BigInteger randomBelow(BigInteger bound) {
+        if (bound.signum() <= 0) {
+            throw new IllegalArgumentException("Bound must be positive");
+        }
+
+        lock.lock();
+        try {
+            return randomBelowLocked(bound);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    private BigInteger randomBelowLocked(BigInteger bound) {
+        byte[] limit = bound.toByteArray();
+        int bits = bound.bitLength();
+        int length = (bits + 7) / 8;
+        int offset = limit.length - length;  // Skip the sign byte, if any
+        int topMask = 0xFF >>> (8 * length - bits);
+
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+
+        while (true) {
+            nextBytes(scratch, length);
+            scratch[0] &= topMask;
+
+            int cmp = 0;
+            for (int i = 0; i < length && cmp == 0; i++) {
+                cmp = Integer.compare(scratch[i] & 0xFF, limit[offset + i] & 0xFF);
+            }
+            if (cmp < 0) {
+                BigInteger result = new BigInteger(1, Arrays.copyOf(scratch, length));
+                Arrays.fill(scratch, 0, length, (byte) 0);
+                return result;
+            }
+        }
+    }
+
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        lock.lock();
+        try {
+            nextBytes(bytes, bytes.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    private void nextBytes(byte[] bytes, int length) {
+        // Large requests skip the buffer entirely
+        if (length > BUFFER_SIZE / 2 && length == bytes.length) {
+            drbg.nextBytes(bytes);
+            return;
+        }
+
+        int copied = 0;
+        while (copied < length) {
+            if (position == BUFFER_SIZE) {
+                drbg.nextBytes(buffer);
+                position = 0;
+            }
+            int n = Math.min(length - copied, BUFFER_SIZE - position);
+            System.arraycopy(buffer, position, bytes, copied, n);
+            Arrays.fill(buffer, position, position + n, (byte) 0);
+            position += n;
+            copied += n;
+        }
+    }
+
+
+    @Override
+    public void setSeed(long seed) {
+        // Called by the SecureRandom constructor before drbg exists; reseeding is not supported
+    }
+
+
+    @Override
+    public String getAlgorithm() {
+        return drbg.getAlgorithm();
+    }
+
+
+     // SecureRandom methods that Entropy doesn't override (setSeed(byte[]), generateSeed,
+     // the parameterized nextBytes, reseed) reach the DRBG through this; only the plain
+     // nextBytes goes through the buffer
+    private static final class DrbgSpi extends SecureRandomSpi {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SecureRandom drbg;
+
+        DrbgSpi(SecureRandom drbg) {
+            this.drbg = drbg;
+        }
+
+        @Override
+        protected void engineSetSeed(byte[] seed) {
+            drbg.setSeed(seed);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes) {
+            drbg.nextBytes(bytes);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes, SecureRandomParameters params) {
+            drbg.nextBytes(bytes, params);
+        }
+
+        @Override
+        protected byte[] engineGenerateSeed(int numBytes) {
+            return drbg.generateSeed(numBytes);
+        }
+
+        @Override
+        protected void engineReseed(SecureRandomParameters params) {
+            if (params == null) {
+                drbg.reseed();  // reseed() passes null down
+            } else {
+                drbg.reseed(params);
+            }
+        }
+
+        @Override
+        protected SecureRandomParameters engineGetParameters() {
+            return drbg.getParameters();
+        }
+    }
+
+
+    private static Entropy shared() {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        Entropy entropy = SHARED.get(stripe);
+        if (entropy == null) {
+            Entropy created = new Entropy(newDrbg());
+            entropy = SHARED.compareAndSet(stripe, null, created) ? created : SHARED.get(stripe);
+        }
+        return entropy;
+    }
+
+
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+
+    private static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+
+     // Prefer the SP 800-90A DRBG where the platform has it
+    private static SecureRandom newDrbg() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+}
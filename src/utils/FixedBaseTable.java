@@ -0,0 +1,117 @@
+package utils;
+
+import java.math.BigInteger;
+
+ // Fixed-base exponentiation table (Lim-Lee comb) for one (modulus, base) pair
+ // The exponent is split into ROWS rows of `span` bits; entry s of the table holds
+ // the product of base^(2^(i*span)) for every row i set in s. An exponentiation
+ // then costs `span` squarings plus at most `span` multiplications, about a
+ // quarter of a generic sliding-window exponentiation at 2048 bits.
+ // Table entries are immutable once built, so one table can be shared by any
+ // number of threads as long as each passes its own MontgomeryContext.
+public class FixedBaseTable {
+
+    private static final int ROWS = 8;
+
+    private final BigInteger modulus;
+    private final BigInteger base;
+    private final int span;           // Bits per row
+    private final int[][] table;      // 2^ROWS Montgomery-form entries
+    private final long buildNanos;
+
+    public FixedBaseTable(BigInteger base, MontgomeryContext context) {
+        long start = System.nanoTime();
+
+        this.modulus = context.getModulus();
+        this.base = base;
+        this.span = (modulus.bitLength() + ROWS - 1) / ROWS;
+        this.table = new int[1 << ROWS][];
+
+        // Row bases: base^(2^(i*span))
+        int[] row = context.toMontgomery(base);
+        table[1] = row;
+        for (int i = 1; i < ROWS; i++) {
+            int[] next = context.newElement();
+            System.arraycopy(row, 0, next, 0, next.length);
+            for (int k = 0; k < span; k++) {
+                context.multiply(next, next, next);
+            }
+            table[1 << i] = next;
+            row = next;
+        }
+
+        // Every other entry is the product of its lowest row and the rest
+        for (int s = 3; s < table.length; s++) {
+            if ((s & (s - 1)) == 0) {
+                continue;
+            }
+            int low = s & -s;
+            table[s] = context.newElement();
+            context.multiply(table[s ^ low], table[low], table[s]);
+        }
+
+        this.buildNanos = System.nanoTime() - start;
+    }
+
+
+     // Computes base^exponent mod modulus using the table
+     // context must be built for the same modulus; it supplies the scratch space
+    public BigInteger modPow(BigInteger exponent, MontgomeryContext context) {
+        if (exponent.signum() < 0 || exponent.bitLength() > ROWS * span) {
+            throw new IllegalArgumentException("Exponent out of range for fixed-base table");
+        }
+
+        int[] result = context.newElement();
+        context.setOne(result);
+
+        boolean started = false;
+        for (int j = span - 1; j >= 0; j--) {
+            if (started) {
+                context.multiply(result, result, result);
+            }
+
+            int s = 0;
+            for (int i = 0; i < ROWS; i++) {
+                if (exponent.testBit(i * span + j)) {
+                    s |= 1 << i;
+                }
+            }
+
+            if (s != 0) {
+                if (started) {
+                    context.multiply(result, table[s], result);
+                } else {
+                    System.arraycopy(table[s], 0, result, 0, result.length);
+                    started = true;
+                }
+            }
+        }
+
+        return context.fromMontgomery(result);
+    }
+
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    public BigInteger getBase() {
+        return base;
+    }
+
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+     // Approximate heap held by the table entries
+    public long getMemoryBytes() {
+        return (long) (table.length - 1) * table[1].length * 4;
+    }
+
+    @Override
+    public String toString() {
+        return "FixedBaseTable{entries=" + (table.length - 1) +
+                ", memory=" + (getMemoryBytes() / 1024) + " KB" +
+                ", build=" + String.format("%.1f", buildNanos / 1e6) + " ms}";
+    }
+}
@@ -0,0 +1,274 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+ // Asynchronous logger for the handshake path
+ // Callers only claim a slot in a lock-free ring buffer and store the template and
+ // its arguments; a daemon thread formats entries and writes them to stdout in
+ // batches. Messages are templates with {} placeholders, so nothing is formatted
+ // on the caller's thread and nothing at all happens below the current level.
+ // Argument rendering: byte[] as a short hex prefix, Supplier by calling get() on
+ // the writer thread, anything else through String.valueOf.
+ // If the ring is full, entries are dropped (and counted) rather than blocking.
+ // Default level comes from -Dtls.log=debug|info|warn|error|off (debug if unset).
+public class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private enum Style { PLAIN, INFO, SUCCESS, WARN, ERROR, CLIENT, SERVER }
+
+    private static final int CAPACITY = 4096;  // Power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int HEX_PREFIX_BYTES = 8;
+    private static final int SPINS = 100;                    // Idle passes before the writer parks
+    private static final int SLOW_PARK_AFTER = 1000;         // Parks (~1 s) before it parks longer
+    private static final long PARK_NANOS = 1_000_000;
+    private static final long SLOW_PARK_NANOS = 20_000_000;
+    private static final long FLUSH_TIMEOUT_NANOS = 2_000_000_000L;
+
+    private static final class Slot {
+        volatile long sequence;  // == index when free, index + 1 once published
+        Level level;
+        Style style;
+        String template;
+        Object a;
+        Object b;
+    }
+
+    private static final Slot[] slots = new Slot[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();  // Next slot to claim
+    private static volatile long head;                         // Next slot to write out
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile Level level = initialLevel();
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(Level l) {
+        return l.compareTo(level) >= 0;
+    }
+
+
+    // Fixed-arity overloads: a disabled call allocates nothing, not even a varargs array
+
+    public static void debug(String template) { log(Level.DEBUG, Style.PLAIN, template, null, null); }
+    public static void debug(String template, Object a) { log(Level.DEBUG, Style.PLAIN, template, a, null); }
+    public static void debug(String template, Object a, Object b) { log(Level.DEBUG, Style.PLAIN, template, a, b); }
+
+    public static void info(String template) { log(Level.INFO, Style.INFO, template, null, null); }
+    public static void info(String template, Object a) { log(Level.INFO, Style.INFO, template, a, null); }
+    public static void info(String template, Object a, Object b) { log(Level.INFO, Style.INFO, template, a, b); }
+
+    public static void success(String template) { log(Level.INFO, Style.SUCCESS, template, null, null); }
+    public static void success(String template, Object a) { log(Level.INFO, Style.SUCCESS, template, a, null); }
+    public static void success(String template, Object a, Object b) { log(Level.INFO, Style.SUCCESS, template, a, b); }
+
+    public static void warn(String template) { log(Level.WARN, Style.WARN, template, null, null); }
+    public static void warn(String template, Object a) { log(Level.WARN, Style.WARN, template, a, null); }
+    public static void warn(String template, Object a, Object b) { log(Level.WARN, Style.WARN, template, a, b); }
+
+    public static void error(String template) { log(Level.ERROR, Style.ERROR, template, null, null); }
+    public static void error(String template, Object a) { log(Level.ERROR, Style.ERROR, template, a, null); }
+    public static void error(String template, Object a, Object b) { log(Level.ERROR, Style.ERROR, template, a, b); }
+
+     // Step headings tagged with the speaking side
+    public static void client(String template) { log(Level.INFO, Style.CLIENT, template, null, null); }
+    public static void server(String template) { log(Level.INFO, Style.SERVER, template, null, null); }
+
+
+     // Wrap an expensive argument so it is only computed if the entry is written out
+    public static Supplier<?> lazy(Supplier<?> value) {
+        return value;
+    }
+
+
+     // Block until everything logged so far is on stdout (e.g. before prompting the user)
+     // Gives up after a couple of seconds, or at once if the writer thread is gone,
+     // so a stuck writer can never hang a prompt or the shutdown hook.
+    public static void flush() {
+        long target = tail.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (head < target && writer.isAlive() && System.nanoTime() - deadline < 0) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(50_000);
+        }
+        System.out.flush();
+    }
+
+
+    private static void log(Level l, Style style, String template, Object a, Object b) {
+        if (l.compareTo(level) < 0) {
+            return;
+        }
+
+        Slot slot;
+        long t;
+        while (true) {
+            t = tail.get();
+            slot = slots[(int) t & MASK];
+            long seq = slot.sequence;
+            if (seq < t) {
+                dropped.increment();  // Full: the writer hasn't freed this slot yet
+                return;
+            }
+            if (seq == t && tail.compareAndSet(t, t + 1)) {
+                break;
+            }
+        }
+
+        slot.level = l;
+        slot.style = style;
+        slot.template = template;
+        slot.a = a;
+        slot.b = b;
+        slot.sequence = t + 1;  // Publish
+    }
+
+
+    private static void drainLoop() {
+        StringBuilder out = new StringBuilder(8192);
+        int idle = 0;
+
+        while (true) {
+            long h = head;
+            Slot slot = slots[(int) h & MASK];
+            if (slot.sequence == h + 1) {
+                // A failing argument (Supplier, toString) costs its entry, never the writer
+                int mark = out.length();
+                try {
+                    format(slot, out);
+                } catch (Throwable t) {
+                    out.setLength(mark);
+                    out.append(Colors.error("[log] could not format \"" + slot.template.trim() + "\": " + t))
+                            .append('\n');
+                }
+                slot.template = null;
+                slot.a = null;
+                slot.b = null;
+                slot.sequence = h + CAPACITY;  // Free for the producer one lap ahead
+                head = h + 1;
+                idle = 0;
+                if (out.length() < 8192) {
+                    continue;
+                }
+            }
+
+            if (out.length() > 0) {
+                long lost = dropped.sumThenReset();
+                if (lost > 0) {
+                    out.append(Colors.error("[log] " + lost + " messages dropped")).append('\n');
+                }
+                System.out.print(out);
+                System.out.flush();
+                out.setLength(0);
+            } else if (idle < SPINS) {
+                idle++;
+                Thread.onSpinWait();
+            } else {
+                // Park, and once idle for a while, park longer (flush() unparks us anyway)
+                LockSupport.parkNanos(idle < SPINS + SLOW_PARK_AFTER ? PARK_NANOS : SLOW_PARK_NANOS);
+                idle = Math.min(idle + 1, SPINS + SLOW_PARK_AFTER);
+            }
+        }
+    }
+
+
+    private static void format(Slot slot, StringBuilder out) {
+        String template = slot.template;
+
+        // Leading blank lines stay outside the colored prefix
+        int start = 0;
+        while (start < template.length() && template.charAt(start) == '\n') {
+            out.append('\n');
+            start++;
+        }
+
+        StringBuilder msg = new StringBuilder(template.length() + 32);
+        Object[] args = { slot.a, slot.b };
+        int arg = 0;
+        for (int i = start; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (c == '{' && i + 1 < template.length() && template.charAt(i + 1) == '}' && arg < args.length) {
+                render(args[arg++], msg);
+                i++;
+            } else {
+                msg.append(c);
+            }
+        }
+
+        String text = msg.toString();
+        switch (slot.style) {
+            case INFO:
+                out.append(Colors.info(text));
+                break;
+            case SUCCESS:
+                out.append(Colors.success(text));
+                break;
+            case WARN:
+                out.append(Colors.warning(text));
+                break;
+            case ERROR:
+                out.append(Colors.error(text));
+                break;
+            case CLIENT:
+                out.append(Colors.client(text));
+                break;
+            case SERVER:
+                out.append(Colors.server(text));
+                break;
+            default:
+                out.append(text);
+        }
+        out.append('\n');
+    }
+
+
+    private static void render(Object value, StringBuilder out) {
+        if (value instanceof Supplier) {
+            value = ((Supplier<?>) value).get();
+        }
+        if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            ByteUtils.appendHex(out, bytes, 0, Math.min(bytes.length, HEX_PREFIX_BYTES));
+            if (bytes.length > HEX_PREFIX_BYTES) {
+                out.append("...");
+            }
+        } else {
+            out.append(value);
+        }
+    }
+
+
+    private static Level initialLevel() {
+        String name = System.getProperty("tls.log");
+        if (name == null) {
+            return Level.DEBUG;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.DEBUG;
+        }
+    }
+}
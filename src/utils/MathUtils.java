@@ -1,15 +1,60 @@
 package utils;
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MathUtils {
-    private static final SecureRandom random = new SecureRandom();
+
+    // Exponentiation engines selectable for modPow
+    public enum ModPowEngine {
+        SQUARE_AND_MULTIPLY,    // Plain repeated squaring on BigInteger
+        MONTGOMERY              // Sliding window over reusable Montgomery limbs
+    }
+
+    private static volatile ModPowEngine modPowEngine = ModPowEngine.MONTGOMERY;
+
+    public static void setModPowEngine(ModPowEngine engine) {
+        modPowEngine = engine;
+    }
+
+    public static ModPowEngine getModPowEngine() {
+        return modPowEngine;
+    }
+
+
+     // Computes (base^exponent) mod modulus with the selected engine
+     // Montgomery form needs an odd modulus, so even moduli always use repeated squaring
+    public static BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus) {
+        if (modulus.equals(BigInteger.ONE)) {
+            return BigInteger.ZERO;
+        }
+
+        if (modPowEngine == ModPowEngine.MONTGOMERY && modulus.testBit(0) && exponent.signum() > 0) {
+            return new MontgomeryContext(modulus).modPow(base, exponent);
+        }
+
+        return squareAndMultiply(base, exponent, modulus);
+    }
+
+
+     // Computes (base^exponent) mod modulus reusing a Montgomery context for that modulus
+     // Lets callers that exponentiate repeatedly under one modulus (DH, Miller-Rabin) set it up once
+    public static BigInteger modPow(BigInteger base, BigInteger exponent, MontgomeryContext context) {
+        if (modPowEngine == ModPowEngine.MONTGOMERY) {
+            return context.modPow(base, exponent);
+        }
+
+        return modPow(base, exponent, context.getModulus());
+    }
+
 
      // Manual implementation of modular exponentiation
      // Computes (base^exponent) mod modulus
      // Uses repeated squaring algorithm
-    public static BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus) {
+    public static BigInteger squareAndMultiply(BigInteger base, BigInteger exponent, BigInteger modulus) {
         if (modulus.equals(BigInteger.ONE)) {
             return BigInteger.ZERO;
         }
@@ -32,6 +77,32 @@ public class MathUtils {
     }
 
 
+    // Primality engines selectable for prime generation
+    public enum PrimalityTest {
+        MILLER_RABIN,   // 10 random-base Miller-Rabin rounds
+        BAILLIE_PSW     // Strong base-2 test plus strong Lucas test
+    }
+
+    private static volatile PrimalityTest primalityTest = PrimalityTest.BAILLIE_PSW;
+
+    public static void setPrimalityTest(PrimalityTest test) {
+        primalityTest = test;
+    }
+
+    public static PrimalityTest getPrimalityTest() {
+        return primalityTest;
+    }
+
+
+     // Primality check with the selected engine
+    public static boolean isPrime(BigInteger n) {
+        if (primalityTest == PrimalityTest.BAILLIE_PSW) {
+            return BailliePSW.isProbablePrime(n);
+        }
+        return isProbablePrime(n, 10);
+    }
+
+
      // Miller-Rabin primality test
      // Tests if a number is probably prime
     public static boolean isProbablePrime(BigInteger n, int iterations) {
@@ -41,62 +112,145 @@ public class MathUtils {
         if (n.equals(BigInteger.valueOf(2)) || n.equals(BigInteger.valueOf(3))) {
             return true;
         }
-        if (n.mod(BigInteger.valueOf(2)).equals(BigInteger.ZERO)) {
+        if (!n.testBit(0)) {
             return false;
         }
 
         // Write n-1 as 2^r * d
-        BigInteger d = n.subtract(BigInteger.ONE);
-        int r = 0;
-        while (d.mod(BigInteger.valueOf(2)).equals(BigInteger.ZERO)) {
-            d = d.divide(BigInteger.valueOf(2));
-            r++;
-        }
+        BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        int r = nMinusOne.getLowestSetBit();
+        BigInteger d = nMinusOne.shiftRight(r);
+
+        // One Montgomery context serves every witness
+        MontgomeryContext context = new MontgomeryContext(n);
 
         // Witness loop
         for (int i = 0; i < iterations; i++) {
             BigInteger a = randomBigInteger(BigInteger.valueOf(2), n.subtract(BigInteger.valueOf(2)));
-            BigInteger x = modPow(a, d, n);
-
-            if (x.equals(BigInteger.ONE) || x.equals(n.subtract(BigInteger.ONE))) {
-                continue;
+            if (!isStrongProbablePrime(a, d, r, context)) {
+                return false;
             }
+        }
 
-            boolean continueWitness = false;
-            for (int j = 0; j < r - 1; j++) {
-                x = modPow(x, BigInteger.valueOf(2), n);
-                if (x.equals(n.subtract(BigInteger.ONE))) {
-                    continueWitness = true;
-                    break;
-                }
-            }
+        return true;
+    }
 
-            if (!continueWitness) {
-                return false;
+
+     // One Miller-Rabin round: is n (the context modulus, n-1 = 2^r * d) a strong probable prime to base a?
+     // x stays in Montgomery form, so each squaring is a single multiply-and-reduce in place
+    static boolean isStrongProbablePrime(BigInteger a, BigInteger d, int r, MontgomeryContext context) {
+        int[] x = context.newElement();
+        if (a.equals(BigInteger.valueOf(2))) {
+            context.modPowBase2(d, x);
+        } else {
+            context.modPowMontgomery(context.toMontgomery(a), d, x);
+        }
+
+        int[] one = context.newElement();
+        context.setOne(one);
+        int[] minusOne = context.toMontgomery(context.getModulus().subtract(BigInteger.ONE));
+
+        if (Arrays.equals(x, one) || Arrays.equals(x, minusOne)) {
+            return true;
+        }
+
+        for (int j = 0; j < r - 1; j++) {
+            context.multiply(x, x, x);
+            if (Arrays.equals(x, minusOne)) {
+                return true;
             }
         }
 
-        return true;
+        return false;
     }
 
 
      // Generate a random prime number of specified bit length
+     // The search is spread over all cores
     public static BigInteger generatePrime(int bitLength) {
-        BigInteger prime;
-        do {
-            prime = new BigInteger(bitLength, random);
+        return generatePrime(bitLength, Runtime.getRuntime().availableProcessors());
+    }
+
+
+     // Generate a random prime using `parallelism` concurrent searchers
+     // Searchers run as fork-join tasks; the first prime found stops the others
+    public static BigInteger generatePrime(int bitLength, int parallelism) {
+        AtomicReference<BigInteger> found = new AtomicReference<>();
+        PrimeSearch search = new PrimeSearch(bitLength, Math.max(1, parallelism), found);
+
+        if (parallelism <= 1) {
+            search.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(search);
+        }
+
+        return found.get();
+    }
+
+
+     // Fork-join prime search: splits until each task is a single searcher
+    private static class PrimeSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int bitLength;
+        private final int searchers;
+        private final AtomicReference<BigInteger> found;
+
+        PrimeSearch(int bitLength, int searchers, AtomicReference<BigInteger> found) {
+            this.bitLength = bitLength;
+            this.searchers = searchers;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (searchers > 1) {
+                int half = searchers / 2;
+                invokeAll(new PrimeSearch(bitLength, half, found),
+                        new PrimeSearch(bitLength, searchers - half, found));
+                return;
+            }
+
+            // Sieve out candidates with small factors before Miller-Rabin
+            PrimeSieve sieve = bitLength > 32 ? new PrimeSieve(bitLength, Entropy.current()) : null;
+
+            // Stop as soon as any sibling has found a prime
+            while (found.get() == null) {
+                BigInteger candidate = sieve != null ? sieve.next() : randomCandidate(bitLength);
+
+                if (isPrime(candidate)) {
+                    found.compareAndSet(null, candidate);
+                }
+            }
+
+            if (sieve != null) {
+                sieve.publishCounters();
+            }
+        }
+
+        private static BigInteger randomCandidate(int bitLength) {
+            BigInteger candidate = Entropy.randomBits(bitLength);
             // Ensure it's odd
-            prime = prime.setBit(0);
+            candidate = candidate.setBit(0);
             // Ensure high bit is set (full bit length)
-            prime = prime.setBit(bitLength - 1);
-        } while (!isProbablePrime(prime, 10));
+            return candidate.setBit(bitLength - 1);
+        }
+    }
 
-        return prime;
+
+     // Modular inverse a^-1 mod m by binary extended GCD
+     // Throws ArithmeticException when gcd(a, m) != 1
+    public static BigInteger modInverse(BigInteger a, BigInteger m) {
+        if (m.equals(BigInteger.ONE)) {
+            return BigInteger.ZERO;
+        }
+        return BinaryGcd.modInverse(a, m);
     }
 
 
      // Extended Euclidean Algorithm to find modular inverse
-    public static BigInteger modInverse(BigInteger a, BigInteger m) {
+     // Original implementation, kept for comparison in benchmarks
+    public static BigInteger modInverseEuclid(BigInteger a, BigInteger m) {
         BigInteger m0 = m;
         BigInteger x0 = BigInteger.ZERO;
         BigInteger x1 = BigInteger.ONE;
@@ -126,13 +280,8 @@ public class MathUtils {
 
 
      // Generate random BigInteger in range [min, max]
+     // Drawn from the calling thread's buffered entropy source
     public static BigInteger randomBigInteger(BigInteger min, BigInteger max) {
-        BigInteger range = max.subtract(min).add(BigInteger.ONE);
-        BigInteger result;
-        do {
-            result = new BigInteger(range.bitLength(), random);
-        } while (result.compareTo(range) >= 0);
-
-        return result.add(min);
+        return Entropy.randomInRange(min, max);
     }
 }
\ No newline at end of file
@@ -0,0 +1,362 @@
+package utils;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+ // Montgomery arithmetic for one fixed odd modulus
+ // Operands live in little-endian 32-bit limb arrays that are reused between
+ // steps, so an exponentiation does no BigInteger allocation and no division.
+ // A context owns scratch buffers and is NOT thread-safe.
+public class MontgomeryContext {
+
+    private static final long MASK = 0xFFFFFFFFL;
+    private static final int MAX_WINDOW = 6;
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    private final BigInteger modulus;
+    private final int len;          // Number of 32-bit limbs
+    private final int[] n;          // Modulus limbs
+    private final int n0inv;        // -n^-1 mod 2^32
+    private final int[] rSquared;   // R^2 mod n, used to enter Montgomery form
+    private final int[] one;        // R mod n, i.e. 1 in Montgomery form
+    private final int[] unit;       // Plain 1, used to leave Montgomery form
+    private final int[] t;          // Multiplication accumulator (len + 2 limbs)
+    private int[][] window;         // Odd powers for sliding-window exponentiation
+
+    public MontgomeryContext(BigInteger modulus) {
+        if (modulus.signum() <= 0 || !modulus.testBit(0)) {
+            throw new IllegalArgumentException("Montgomery modulus must be odd and positive");
+        }
+
+        this.modulus = modulus;
+        this.len = (modulus.bitLength() + 31) >>> 5;
+        this.n = toLimbs(modulus, len);
+        this.n0inv = -inverse32(n[0]);
+        this.rSquared = toLimbs(BigInteger.ONE.shiftLeft(64 * len).mod(modulus), len);
+        this.one = toLimbs(BigInteger.ONE.shiftLeft(32 * len).mod(modulus), len);
+        this.unit = new int[len];
+        this.unit[0] = 1;
+        this.t = new int[len + 2];
+    }
+
+
+     // Computes (base^exponent) mod modulus
+    public BigInteger modPow(BigInteger base, BigInteger exponent) {
+        if (exponent.signum() <= 0) {
+            return BigInteger.ONE.mod(modulus);
+        }
+
+        int[] result = newElement();
+        if (base.equals(TWO)) {
+            modPowBase2(exponent, result);
+        } else {
+            modPowMontgomery(toMontgomery(base), exponent, result);
+        }
+        return fromMontgomery(result);
+    }
+
+
+     // 2^exponent in Montgomery form: multiplying by the base is just a doubling
+     // (shift left one bit, conditionally subtract n), so only the squarings cost
+    public void modPowBase2(BigInteger exponent, int[] result) {
+        setOne(result);
+        for (int i = exponent.bitLength() - 1; i >= 0; i--) {
+            multiply(result, result, result);
+            if (exponent.testBit(i)) {
+                doubleInPlace(result);
+            }
+        }
+    }
+
+
+     // a = 2a mod n, in place
+    private void doubleInPlace(int[] a) {
+        int carry = 0;
+        for (int j = 0; j < len; j++) {
+            int limb = a[j];
+            a[j] = (limb << 1) | carry;
+            carry = limb >>> 31;
+        }
+
+        if (carry != 0 || compare(a, n, len) >= 0) {
+            subtractModulus(a);
+        }
+    }
+
+
+     // a = a - n, in place
+    private void subtractModulus(int[] a) {
+        long borrow = 0;
+        for (int j = 0; j < len; j++) {
+            long d = (a[j] & MASK) - (n[j] & MASK) - borrow;
+            a[j] = (int) d;
+            borrow = (d >>> 63);
+        }
+    }
+
+
+     // Left-to-right sliding-window exponentiation entirely in Montgomery form
+     // base and result are Montgomery-form limb arrays (result may not alias base)
+    public void modPowMontgomery(int[] base, BigInteger exponent, int[] result) {
+        int bits = exponent.bitLength();
+        if (bits == 0) {
+            System.arraycopy(one, 0, result, 0, len);
+            return;
+        }
+
+        // Precompute base^1, base^3, ..., base^(2^w - 1)
+        int w = windowSize(bits);
+        int[][] table = window(w);
+        System.arraycopy(base, 0, table[0], 0, len);
+        if (w > 1) {
+            int[] square = table[table.length - 1];
+            multiply(base, base, square);
+            for (int k = 1; k < (1 << (w - 1)); k++) {
+                multiply(table[k - 1], square, table[k]);
+            }
+        }
+
+        boolean started = false;
+        int i = bits - 1;
+        while (i >= 0) {
+            if (!exponent.testBit(i)) {
+                multiply(result, result, result);
+                i--;
+                continue;
+            }
+
+            // Longest window [i..l] of at most w bits ending in a set bit
+            int l = Math.max(i - w + 1, 0);
+            while (!exponent.testBit(l)) {
+                l++;
+            }
+
+            int value = 0;
+            for (int k = i; k >= l; k--) {
+                value = (value << 1) | (exponent.testBit(k) ? 1 : 0);
+                if (started) {
+                    multiply(result, result, result);
+                }
+            }
+
+            if (started) {
+                multiply(result, table[value >>> 1], result);
+            } else {
+                System.arraycopy(table[value >>> 1], 0, result, 0, len);
+                started = true;
+            }
+            i = l - 1;
+        }
+    }
+
+
+     // Montgomery product: out = a * b * R^-1 mod n (CIOS method)
+     // out may alias a or b
+    public void multiply(int[] a, int[] b, int[] out) {
+        int[] t = this.t;
+        Arrays.fill(t, 0);
+
+        for (int i = 0; i < len; i++) {
+            // t += a * b[i]
+            long bi = b[i] & MASK;
+            long carry = 0;
+            for (int j = 0; j < len; j++) {
+                long s = (t[j] & MASK) + (a[j] & MASK) * bi + carry;
+                t[j] = (int) s;
+                carry = s >>> 32;
+            }
+            long s = (t[len] & MASK) + carry;
+            t[len] = (int) s;
+            t[len + 1] = (int) (s >>> 32);
+
+            // t = (t + m * n) / 2^32, where m makes the low limb vanish
+            long m = (t[0] * n0inv) & MASK;
+            s = (t[0] & MASK) + m * (n[0] & MASK);
+            carry = s >>> 32;
+            for (int j = 1; j < len; j++) {
+                s = (t[j] & MASK) + m * (n[j] & MASK) + carry;
+                t[j - 1] = (int) s;
+                carry = s >>> 32;
+            }
+            s = (t[len] & MASK) + carry;
+            t[len - 1] = (int) s;
+            t[len] = t[len + 1] + (int) (s >>> 32);
+        }
+
+        // t < 2n here, so a single conditional subtraction finishes the reduction
+        if (t[len] != 0 || compare(t, n, len) >= 0) {
+            long borrow = 0;
+            for (int j = 0; j < len; j++) {
+                long d = (t[j] & MASK) - (n[j] & MASK) - borrow;
+                out[j] = (int) d;
+                borrow = (d >>> 63);
+            }
+        } else {
+            System.arraycopy(t, 0, out, 0, len);
+        }
+    }
+
+
+     // out = a + b mod n (works in or out of Montgomery form), out may alias a or b
+    public void add(int[] a, int[] b, int[] out) {
+        long carry = 0;
+        for (int j = 0; j < len; j++) {
+            long s = (a[j] & MASK) + (b[j] & MASK) + carry;
+            out[j] = (int) s;
+            carry = s >>> 32;
+        }
+        if (carry != 0 || compare(out, n, len) >= 0) {
+            subtractModulus(out);
+        }
+    }
+
+
+     // out = a - b mod n, out may alias a or b
+    public void subtract(int[] a, int[] b, int[] out) {
+        long borrow = 0;
+        for (int j = 0; j < len; j++) {
+            long d = (a[j] & MASK) - (b[j] & MASK) - borrow;
+            out[j] = (int) d;
+            borrow = (d >>> 63);
+        }
+        if (borrow != 0) {
+            long carry = 0;
+            for (int j = 0; j < len; j++) {
+                long s = (out[j] & MASK) + (n[j] & MASK) + carry;
+                out[j] = (int) s;
+                carry = s >>> 32;
+            }
+        }
+    }
+
+
+     // a = a / 2 mod n, in place (n is odd, so add n first when a is odd)
+    public void halve(int[] a) {
+        long carry = 0;
+        if ((a[0] & 1) != 0) {
+            for (int j = 0; j < len; j++) {
+                long s = (a[j] & MASK) + (n[j] & MASK) + carry;
+                a[j] = (int) s;
+                carry = s >>> 32;
+            }
+        }
+        for (int j = 0; j < len - 1; j++) {
+            a[j] = (a[j] >>> 1) | (a[j + 1] << 31);
+        }
+        a[len - 1] = (a[len - 1] >>> 1) | ((int) carry << 31);
+    }
+
+
+    public boolean isZero(int[] a) {
+        for (int j = 0; j < len; j++) {
+            if (a[j] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+     // Convert a value into Montgomery form (a * R mod n)
+    public int[] toMontgomery(BigInteger a) {
+        if (a.signum() < 0 || a.compareTo(modulus) >= 0) {
+            a = a.mod(modulus);
+        }
+        int[] result = toLimbs(a, len);
+        multiply(result, rSquared, result);
+        return result;
+    }
+
+
+     // Convert a Montgomery-form value back to an ordinary BigInteger
+    public BigInteger fromMontgomery(int[] a) {
+        int[] plain = newElement();
+        multiply(a, unit, plain);
+        return fromLimbs(plain);
+    }
+
+
+    public int[] newElement() {
+        return new int[len];
+    }
+
+     // out = 1 in Montgomery form
+    public void setOne(int[] out) {
+        System.arraycopy(one, 0, out, 0, len);
+    }
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+
+    private int[][] window(int w) {
+        int needed = (1 << (w - 1)) + 1;  // Odd powers plus one slot for base^2
+        if (window == null || window.length < needed) {
+            window = new int[(1 << (MAX_WINDOW - 1)) + 1][];
+            for (int k = 0; k < window.length; k++) {
+                window[k] = new int[len];
+            }
+        }
+        return window;
+    }
+
+
+    private static int windowSize(int bits) {
+        if (bits > 671) return 6;
+        if (bits > 239) return 5;
+        if (bits > 79) return 4;
+        if (bits > 23) return 3;
+        return 1;
+    }
+
+
+     // Inverse of an odd x modulo 2^32 via Newton iteration
+    private static int inverse32(int x) {
+        int inv = x;  // Correct to 3 bits for any odd x
+        for (int i = 0; i < 4; i++) {
+            inv *= 2 - x * inv;
+        }
+        return inv;
+    }
+
+
+    private static int compare(int[] a, int[] b, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (a[i] != b[i]) {
+                return Integer.compareUnsigned(a[i], b[i]);
+            }
+        }
+        return 0;
+    }
+
+
+     // Non-negative BigInteger to little-endian limbs
+    static int[] toLimbs(BigInteger value, int len) {
+        byte[] bytes = value.toByteArray();
+        int[] limbs = new int[len];
+        int k = bytes.length - 1;
+        for (int i = 0; i < len && k >= 0; i++) {
+            int limb = 0;
+            for (int shift = 0; shift < 32 && k >= 0; shift += 8, k--) {
+                limb |= (bytes[k] & 0xFF) << shift;
+            }
+            limbs[i] = limb;
+        }
+        return limbs;
+    }
+
+
+     // Little-endian limbs to non-negative BigInteger
+    static BigInteger fromLimbs(int[] limbs) {
+        byte[] bytes = new byte[limbs.length * 4];
+        for (int i = 0; i < limbs.length; i++) {
+            int pos = bytes.length - 4 * (i + 1);
+            bytes[pos] = (byte) (limbs[i] >>> 24);
+            bytes[pos + 1] = (byte) (limbs[i] >>> 16);
+            bytes[pos + 2] = (byte) (limbs[i] >>> 8);
+            bytes[pos + 3] = (byte) limbs[i];
+        }
+        return new BigInteger(1, bytes);
+    }
+}
@@ -0,0 +1,166 @@
+package utils;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+ // Incremental sieve for prime search
+ // Starts from a random odd base and walks base, base+2, base+4, ... keeping the
+ // residue of the current candidate modulo each small prime. Stepping only adds
+ // 2 to every residue, and a candidate with a zero residue is rejected without
+ // ever reaching Miller-Rabin. Not thread-safe: use one sieve per searcher.
+public class PrimeSieve {
+
+    private static final int SMALL_PRIME_COUNT = 2048;
+    private static final int[] SMALL_PRIMES = oddPrimes(SMALL_PRIME_COUNT);
+    private static final int MAX_STEPS = 1 << 20;  // Reseed after this many steps
+
+    // Totals across all sieves: candidates stepped through vs. passed on to Miller-Rabin
+    // Each sieve counts in plain fields and adds them here once, in publishCounters()
+    private static final AtomicLong candidateCount = new AtomicLong();
+    private static final AtomicLong survivorCount = new AtomicLong();
+
+    private final int bitLength;
+    private final Random random;
+    private final int[] residues = new int[SMALL_PRIMES.length];
+    private BigInteger base;
+    private int offset;
+    private long candidates;  // This sieve's counts, not yet in the totals
+    private long survivors;
+
+    public PrimeSieve(int bitLength, Random random) {
+        // Smaller candidates could themselves be one of the sieving primes
+        if (bitLength <= 32) {
+            throw new IllegalArgumentException("Sieve needs candidates above 32 bits");
+        }
+
+        this.bitLength = bitLength;
+        this.random = random;
+        reseed();
+    }
+
+
+     // Next candidate with no factor among the small primes
+    public BigInteger next() {
+        long stepped = 0;
+
+        while (true) {
+            if (offset >= MAX_STEPS) {
+                reseed();
+            }
+
+            boolean composite = false;
+            for (int i = 0; i < residues.length; i++) {
+                if (residues[i] == 0) {
+                    composite = true;
+                    break;
+                }
+            }
+
+            BigInteger candidate = composite ? null : base.add(BigInteger.valueOf(offset));
+            stepped++;
+            step();
+
+            if (candidate != null) {
+                if (candidate.bitLength() != bitLength) {
+                    // Walked past the top of the range
+                    reseed();
+                    continue;
+                }
+                candidates += stepped;
+                survivors++;
+                return candidate;
+            }
+        }
+    }
+
+
+     // Add this sieve's counts to the totals; call once its search is over
+    public void publishCounters() {
+        candidateCount.addAndGet(candidates);
+        survivorCount.addAndGet(survivors);
+        candidates = 0;
+        survivors = 0;
+    }
+
+
+    public static long getCandidateCount() {
+        return candidateCount.get();
+    }
+
+    public static long getSurvivorCount() {
+        return survivorCount.get();
+    }
+
+    public static void resetCounters() {
+        candidateCount.set(0);
+        survivorCount.set(0);
+    }
+
+    public static String stats() {
+        long candidates = candidateCount.get();
+        long survivors = survivorCount.get();
+        return "Sieve: " + candidates + " candidates, " + survivors + " reached Miller-Rabin (" +
+                (candidates == 0 ? 0 : 100 * survivors / candidates) + "%)";
+    }
+
+
+     // Advance to the next odd candidate: every residue moves by 2
+    private void step() {
+        offset += 2;
+        for (int i = 0; i < residues.length; i++) {
+            int r = residues[i] + 2;
+            int p = SMALL_PRIMES[i];
+            residues[i] = r >= p ? r - p : r;
+        }
+    }
+
+
+     // Pick a fresh random odd base with the top bit set and recompute residues
+    private void reseed() {
+        base = new BigInteger(bitLength, random).setBit(0).setBit(bitLength - 1);
+        offset = 0;
+
+        // Fold the base in 32 bits at a time: r = (r * 2^32 + word) mod p
+        byte[] bytes = base.toByteArray();
+        for (int i = 0; i < SMALL_PRIMES.length; i++) {
+            long p = SMALL_PRIMES[i];
+            long r = 0;
+            int k = 0;
+            int lead = bytes.length % 4;
+            for (; k < lead; k++) {
+                r = ((r << 8) | (bytes[k] & 0xFF)) % p;
+            }
+            for (; k < bytes.length; k += 4) {
+                long word = ((bytes[k] & 0xFFL) << 24) | ((bytes[k + 1] & 0xFF) << 16) |
+                        ((bytes[k + 2] & 0xFF) << 8) | (bytes[k + 3] & 0xFF);
+                r = ((r << 32) | word) % p;
+            }
+            residues[i] = (int) r;
+        }
+    }
+
+
+     // First `count` odd primes (3, 5, 7, ...) via the sieve of Eratosthenes
+    private static int[] oddPrimes(int count) {
+        int limit = 32;
+        while (true) {
+            limit *= 2;
+            boolean[] composite = new boolean[limit];
+            int[] primes = new int[count];
+            int found = 0;
+            for (int i = 3; i < limit && found < count; i += 2) {
+                if (composite[i]) {
+                    continue;
+                }
+                primes[found++] = i;
+                for (long j = (long) i * i; j < limit; j += 2L * i) {
+                    composite[(int) j] = true;
+                }
+            }
+            if (found == count) {
+                return primes;
+            }
+        }
+    }
+}